@@ -15,6 +15,14 @@ repositories {
     jcenter()
 }
 
+// JMH microbenchmarks of the hot paths live in src/jmh/java
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets["main"].output + sourceSets["main"].compileClasspath
+        runtimeClasspath += sourceSets["main"].output + sourceSets["main"].runtimeClasspath
+    }
+}
+
 dependencies {
     // Checks
     errorprone("com.google.errorprone:error_prone_core:2.3.3")
@@ -35,9 +43,16 @@ dependencies {
     //LSM DB
     compile("org.rocksdb:rocksdbjni:6.2.2")
 
+    // Latency histograms
+    compile("org.hdrhistogram:HdrHistogram:2.1.11")
+
     // JUnit Jupiter test framework
     testCompile("org.junit.jupiter:junit-jupiter-api:5.4.0")
     testRuntime("org.junit.jupiter:junit-jupiter-engine:5.4.0")
+
+    // JMH microbenchmarks
+    "jmhCompile"("org.openjdk.jmh:jmh-core:1.21")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.21")
 }
 
 val run by tasks.getting(JavaExec::class) {
@@ -69,4 +84,19 @@ tasks.withType<JavaCompile> {
 // Error prone options
 tasks.named<JavaCompile>("compileTestJava") {
     options.errorprone.isEnabled.set(false)
-}
\ No newline at end of file
+}
+
+// The benchmark harness code generated by JMH is not warning-free
+tasks.named<JavaCompile>("compileJmhJava") {
+    options.errorprone.isEnabled.set(false)
+    options.compilerArgs.remove("-Werror")
+}
+
+// Hot path microbenchmarks reporting throughput and allocations per operation,
+// select the benchmarks by a regexp: --args="RocksDaoBench.get"
+tasks.register<JavaExec>("jmh") {
+    classpath = sourceSets["jmh"].runtimeClasspath
+    main = "org.openjdk.jmh.Main"
+    // Kept when --args replaces the arguments
+    argumentProviders.add(CommandLineArgumentProvider { listOf("-prof", "gc") })
+}
@@ -0,0 +1,85 @@
+package ru.mail.polis.dao;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.mail.polis.Record;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record cost of the iterator adapters used by the range scans.
+ * The merge of four copies collapses them, so it emits as many records as the others.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItersBench {
+    private static final int RECORDS = 1024;
+
+    private final List<Record> records = new ArrayList<>(RECORDS);
+    // Every key twice, as merged from a memtable and a table
+    private final List<Record> duplicates = new ArrayList<>(RECORDS * 2);
+    private Record until;
+
+    @Setup
+    public void setUp() {
+        final ByteBuffer value = ByteBuffer.allocate(64);
+        for (int i = 0; i < RECORDS; i++) {
+            final Record record = Record.of(ByteBuffer.allocate(Integer.BYTES).putInt(0, i), value);
+            records.add(record);
+            duplicates.add(record);
+            duplicates.add(record);
+        }
+        until = records.get(RECORDS - 1);
+    }
+
+    @Benchmark
+    public void until(final Blackhole blackhole) {
+        drain(Iters.until(records.iterator(), until), blackhole);
+    }
+
+    @Benchmark
+    public void collapseEquals(final Blackhole blackhole) {
+        drain(Iters.collapseEquals(duplicates.iterator()), blackhole);
+    }
+
+    @Benchmark
+    public void merge(final Blackhole blackhole) {
+        drain(Iters.merge(Arrays.asList(
+                records.iterator(),
+                records.iterator(),
+                records.iterator(),
+                records.iterator()), Comparator.naturalOrder()), blackhole);
+    }
+
+    @Benchmark
+    public void collapseEqualsByKey(final Blackhole blackhole) {
+        drain(Iters.collapseEquals(duplicates.iterator(), Record::getKey), blackhole);
+    }
+
+    private static void drain(
+            final Iterator<Record> iter,
+            final Blackhole blackhole) {
+        while (iter.hasNext()) {
+            blackhole.consume(iter.next());
+        }
+    }
+}
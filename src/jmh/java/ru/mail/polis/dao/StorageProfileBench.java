@@ -0,0 +1,99 @@
+package ru.mail.polis.dao;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.mail.polis.Files;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point reads, writes and short range scans of the {@link StorageConfig.Profile}s without the row cache,
+ * the data set is bigger than the block caches of all the profiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+public class StorageProfileBench {
+    private static final int KEYS = 1_000_000;
+    private static final int RANGE_LENGTH = 100;
+
+    @Param({"DEFAULT", "POINT_LOOKUP", "SCAN_HEAVY", "WRITE_HEAVY"})
+    private StorageConfig.Profile profile;
+
+    @Param({"ROCKSDB"})
+    private DAOFactory.Engine engine;
+
+    @Param({"256"})
+    private int valueSize;
+
+    private File data;
+    private DAO dao;
+    private ByteBuffer value;
+
+    /**
+     * Fills the storage with {@link #KEYS} keys and compacts them.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data, StorageConfig.builder(profile).engine(engine).rowCacheSize(0).build());
+        final byte[] bytes = new byte[valueSize];
+        new Random(1).nextBytes(bytes);
+        value = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < KEYS; i++) {
+            dao.upsert(key(i), value.duplicate());
+        }
+        dao.compact();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Benchmark
+    public ByteBuffer get() throws IOException {
+        return dao.get(key(ThreadLocalRandom.current().nextInt(KEYS)));
+    }
+
+    @Benchmark
+    public void upsert() throws IOException {
+        dao.upsert(key(ThreadLocalRandom.current().nextInt(KEYS)), value.duplicate());
+    }
+
+    @Benchmark
+    public void range(final Blackhole blackhole) throws IOException {
+        final ByteBuffer from = key(ThreadLocalRandom.current().nextInt(KEYS - RANGE_LENGTH));
+        try (CloseableIterator<Record> range = dao.range(from, null)) {
+            for (int i = 0; i < RANGE_LENGTH && range.hasNext(); i++) {
+                blackhole.consume(range.next());
+            }
+        }
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+}
@@ -0,0 +1,66 @@
+package ru.mail.polis.service.vovasq;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing of the cursor views into the chunks of {@link StorageSession}, without the socket.
+ * The score is records per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkEncodingBench {
+    private static final int RECORDS = 1024;
+
+    @Param({"16", "256", "4096"})
+    private int valueSize;
+
+    private final ByteBuffer[] keys = new ByteBuffer[RECORDS];
+    private final ByteBuffer[] values = new ByteBuffer[RECORDS];
+    private final byte[] chunk = new byte[StorageSession.CHUNK_SIZE];
+    private int position = StorageSession.PAYLOAD_OFFSET;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < RECORDS; i++) {
+            keys[i] = ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+            values[i] = ByteBuffer.allocate(valueSize);
+        }
+    }
+
+    @Benchmark
+    public void pack(final Blackhole blackhole) {
+        // Views of a cursor are read once, rewind them for the next round
+        final ByteBuffer key = keys[next].rewind();
+        final ByteBuffer value = values[next].rewind();
+        next = (next + 1) & (RECORDS - 1);
+        int end = StorageSession.pack(chunk, position, StorageSession.PAYLOAD_LIMIT, key, value);
+        if (end < 0) {
+            // The chunk is full, frame it and start the next one
+            blackhole.consume(StorageSession.writeSize(
+                    chunk,
+                    StorageSession.PAYLOAD_OFFSET,
+                    position - StorageSession.PAYLOAD_OFFSET));
+            end = StorageSession.pack(chunk, StorageSession.PAYLOAD_OFFSET, StorageSession.PAYLOAD_LIMIT, key, value);
+        }
+        position = end;
+    }
+}
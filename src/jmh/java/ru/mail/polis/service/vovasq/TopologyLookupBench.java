@@ -0,0 +1,89 @@
+package ru.mail.polis.service.vovasq;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of placing a key with the {@link Topology} implementations, the ring with different numbers
+ * of virtual nodes. The key distribution and the remapping on a node join are checked by the topology tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopologyLookupBench {
+    private static final int KEYS = 1024;
+    private static final int REPLICAS = 3;
+
+    // ring-128 is the ServiceFactory default
+    @Param({"basic", "ring-16", "ring-64", "ring-128", "ring-256", "rendezvous"})
+    private String kind;
+
+    @Param({"5"})
+    private int nodeCount;
+
+    private Topology<String> topology;
+    private final ByteBuffer[] keys = new ByteBuffer[KEYS];
+    private final String[] replicas = new String[REPLICAS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final Set<String> nodes = new TreeSet<>();
+        final Map<String, Double> weights = new TreeMap<>();
+        for (int i = 0; i < nodeCount; i++) {
+            final String node = "http://localhost:" + (8080 + i);
+            nodes.add(node);
+            weights.put(node, 1.0);
+        }
+        if ("basic".equals(kind)) {
+            topology = new BasicTopology(nodes, "");
+        } else if ("rendezvous".equals(kind)) {
+            topology = new RendezvousTopology(weights, "");
+        } else if (kind.startsWith("ring-")) {
+            topology = new ConsistentHashTopology(nodes, "", Integer.parseInt(kind.substring("ring-".length())));
+        } else {
+            throw new IllegalArgumentException("Unknown topology " + kind);
+        }
+        final Random random = new Random(1);
+        for (int i = 0; i < KEYS; i++) {
+            final byte[] key = new byte[16];
+            random.nextBytes(key);
+            keys[i] = ByteBuffer.wrap(key);
+        }
+    }
+
+    @Benchmark
+    public String primaryFor() {
+        return topology.primaryFor(nextKey());
+    }
+
+    @Benchmark
+    public int replicasFor() {
+        return topology.replicasFor(nextKey(), replicas);
+    }
+
+    private ByteBuffer nextKey() {
+        next = (next + 1) & (KEYS - 1);
+        return keys[next];
+    }
+}
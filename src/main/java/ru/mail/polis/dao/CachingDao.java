@@ -0,0 +1,156 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link DAO} decorator serving point reads from an off-heap {@link RowCache}.
+ *
+ * <p>Versioned rows, tombstones included, are cached on read and invalidated on every write.
+ */
+public class CachingDao implements DAO {
+    private static final int SEGMENTS = 16;
+
+    private final DAO delegate;
+    private final RowCache cache;
+
+    CachingDao(@NotNull final DAO delegate, final long capacity) {
+        this.delegate = delegate;
+        this.cache = new RowCache(capacity, SEGMENTS);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return delegate.iterator(from);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return delegate.range(from, to);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> versionedIterator(@NotNull final ByteBuffer from) throws IOException {
+        return delegate.versionedIterator(from);
+    }
+
+    @NotNull
+    @Override
+    public Cursor cursor() throws IOException {
+        return delegate.cursor();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final Value value = getVersioned(key);
+        if (value.isTombstone()) {
+            throw new CustomNoSuchElementException("Key removed " + key.toString());
+        }
+        return value.getData();
+    }
+
+    @NotNull
+    @Override
+    public Value getVersioned(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final ByteBuffer cached = cache.get(key);
+        if (cached != null) {
+            return Value.decode(cached);
+        }
+        final long version = cache.version(key);
+        final Value value = delegate.getVersioned(key);
+        cache.put(key, value.encode(), version);
+        return value;
+    }
+
+    @NotNull
+    @Override
+    public List<ByteBuffer> getAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        return delegate.getAll(keys);
+    }
+
+    @NotNull
+    @Override
+    public List<Value> getAllVersioned(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        return delegate.getAllVersioned(keys);
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long timestamp) throws IOException {
+        delegate.upsert(key, value, timestamp);
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
+        delegate.upsert(key, value);
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key, final long timestamp) throws IOException {
+        delegate.remove(key, timestamp);
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        delegate.remove(key);
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void apply(
+            @NotNull final Iterable<Mutation> mutations,
+            final long timestamp) throws IOException {
+        delegate.apply(mutations, timestamp);
+        for (final Mutation mutation : mutations) {
+            cache.invalidate(mutation.getKey());
+        }
+    }
+
+    @Override
+    public void apply(@NotNull final Iterable<Mutation> mutations) throws IOException {
+        delegate.apply(mutations);
+        for (final Mutation mutation : mutations) {
+            cache.invalidate(mutation.getKey());
+        }
+    }
+
+    @Override
+    public void compact() throws IOException {
+        delegate.compact();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    public long getCacheHits() {
+        return cache.hits();
+    }
+
+    public long getCacheMisses() {
+        return cache.misses();
+    }
+
+    public long getCacheEvictions() {
+        return cache.evictions();
+    }
+}
@@ -0,0 +1,55 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Key with its versioned {@link Value}.
+ */
+final class Cell {
+    /**
+     * Orders cells by key and puts the freshest version of a key first.
+     */
+    static final Comparator<Cell> COMPARATOR = Comparator
+            .comparing(Cell::getKey)
+            .thenComparing(Cell::getTimestamp, Comparator.reverseOrder());
+
+    /**
+     * Orders cells by key only, without copying the keys.
+     */
+    static final Comparator<Cell> KEY_ORDER = (a, b) -> a.key.compareTo(b.key);
+
+    private final ByteBuffer key;
+    private final Value value;
+
+    Cell(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    @NotNull
+    ByteBuffer getKey() {
+        return key.asReadOnlyBuffer();
+    }
+
+    @NotNull
+    Value getValue() {
+        return value;
+    }
+
+    private long getTimestamp() {
+        return value.getTimestamp();
+    }
+
+    /**
+     * Returns the fresher version of the same key.
+     */
+    @NotNull
+    static Cell fresher(
+            @NotNull final Cell a,
+            @NotNull final Cell b) {
+        return b.getTimestamp() > a.getTimestamp() ? b : a;
+    }
+}
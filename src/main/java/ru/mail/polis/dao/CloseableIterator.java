@@ -0,0 +1,14 @@
+package ru.mail.polis.dao;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * {@link Iterator} holding storage resources until closed, e.g. a consistent snapshot.
+ *
+ * <p>Closing is idempotent. The iterator must not be used after it is closed.
+ */
+public interface CloseableIterator<E> extends Iterator<E>, Closeable {
+    @Override
+    void close();
+}
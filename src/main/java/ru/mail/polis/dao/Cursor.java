@@ -0,0 +1,50 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Forward scan over the live records without a {@link ru.mail.polis.Record} per element.
+ *
+ * <p>{@link #key()} and {@link #value()} are views owned by the cursor, they are valid
+ * till the next move of the cursor and may be reused for the next record.
+ * Reading the views moves only their own positions. The views describe a record only
+ * after {@link #next()} returned {@code true}, otherwise their content is unspecified.
+ * <pre>{@code
+ * try (Cursor cursor = dao.cursor()) {
+ *     cursor.seek(from, to);
+ *     while (cursor.next()) {
+ *         consume(cursor.key(), cursor.value());
+ *     }
+ * }
+ * }</pre>
+ */
+public interface Cursor extends Closeable {
+    /**
+     * Positions the cursor before the first record at "from" key (inclusive)
+     * until optional "to" key (exclusive).
+     */
+    void seek(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException;
+
+    /**
+     * Moves to the next record.
+     *
+     * @return {@code false} if there are no more records
+     */
+    boolean next();
+
+    @NotNull
+    ByteBuffer key();
+
+    @NotNull
+    ByteBuffer value();
+
+    @Override
+    void close();
+}
@@ -19,11 +19,14 @@ package ru.mail.polis.dao;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import ru.mail.polis.Record;
+import ru.mail.polis.util.Clock;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -39,18 +42,20 @@ public interface DAO extends Closeable {
      * in <b>ascending</b> order according to {@link Record#compareTo(Record)}.
      * N.B. The iterator should be obtained as fast as possible, e.g.
      * one should not "seek" to start point ("from" element) in linear time ;)
+     * The iterator may pin storage resources, e.g. a snapshot, so close it when done.
      */
     @NotNull
-    Iterator<Record> iterator(@NotNull ByteBuffer from) throws IOException;
+    CloseableIterator<Record> iterator(@NotNull ByteBuffer from) throws IOException;
 
     /**
      * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
      * until given "to" key (exclusive) in <b>ascending</b> order according to {@link Record#compareTo(Record)}.
      * N.B. The iterator should be obtained as fast as possible, e.g.
      * one should not "seek" to start point ("from" element) in linear time ;)
+     * The iterator may pin storage resources, e.g. a snapshot, so close it when done.
      */
     @NotNull
-    default Iterator<Record> range(
+    default CloseableIterator<Record> range(
             @NotNull ByteBuffer from,
             @Nullable ByteBuffer to) throws IOException {
         if (to == null) {
@@ -62,9 +67,27 @@ public interface DAO extends Closeable {
         }
 
         final Record bound = Record.of(to, ByteBuffer.allocate(0));
-        return Iters.until(iterator(from), bound);
+        final CloseableIterator<Record> iter = iterator(from);
+        return Iters.closeable(Iters.until(iter, bound), iter::close);
     }
 
+    /**
+     * Provides {@link Cursor} to scan the records with, {@link Cursor#seek(ByteBuffer, ByteBuffer)} it first.
+     * A storage allocating less per record than {@link #range(ByteBuffer, ByteBuffer)} overrides it.
+     */
+    @NotNull
+    default Cursor cursor() throws IOException {
+        return new IteratorCursor(this);
+    }
+
+    /**
+     * Provides iterator over all the stored versions starting at "from" key (inclusive), tombstones included.
+     * Values of the records are encoded {@link Value}s, see {@link Value#decode(ByteBuffer)}.
+     * It is meant for moving the data between nodes with the versions preserved.
+     */
+    @NotNull
+    CloseableIterator<Record> versionedIterator(@NotNull ByteBuffer from) throws IOException;
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -72,30 +95,120 @@ public interface DAO extends Closeable {
      */
     @NotNull
     default ByteBuffer get(@NotNull ByteBuffer key) throws IOException, NoSuchElementException {
-        final Iterator<Record> iter = iterator(key);
-        if (!iter.hasNext()) {
-            throw new NoSuchElementException("Not found");
+        try (CloseableIterator<Record> iter = iterator(key)) {
+            if (!iter.hasNext()) {
+                throw new NoSuchElementException("Not found");
+            }
+
+            final Record next = iter.next();
+            if (next.getKey().equals(key)) {
+                return next.getValue();
+            } else {
+                throw new NoSuchElementException("Not found");
+            }
         }
+    }
+
+    /**
+     * Obtains versioned {@link Value} corresponding to given key, tombstones included.
+     *
+     * @throws NoSuchElementException if the key has never been written or its tombstone was purged
+     */
+    @NotNull
+    Value getVersioned(@NotNull ByteBuffer key) throws IOException, NoSuchElementException;
+
+    /**
+     * Obtains values corresponding to given keys.
+     *
+     * @return values in the order of keys, {@code null} for the missing ones
+     */
+    @NotNull
+    default List<ByteBuffer> getAll(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final List<ByteBuffer> values = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            try {
+                values.add(get(key));
+            } catch (NoSuchElementException e) {
+                values.add(null);
+            }
+        }
+        return values;
+    }
 
-        final Record next = iter.next();
-        if (next.getKey().equals(key)) {
-            return next.getValue();
-        } else {
-            throw new NoSuchElementException("Not found");
+    /**
+     * Obtains versioned values corresponding to given keys, tombstones included.
+     *
+     * @return versions in the order of keys, {@code null} for the keys never written
+     */
+    @NotNull
+    default List<Value> getAllVersioned(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final List<Value> values = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            try {
+                values.add(getVersioned(key));
+            } catch (NoSuchElementException e) {
+                values.add(null);
+            }
         }
+        return values;
     }
 
     /**
      * Inserts or updates value by given key.
      */
+    default void upsert(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value) throws IOException {
+        upsert(key, value, Clock.currentTimeMicros());
+    }
+
+    /**
+     * Inserts or updates value by given key with the given timestamp.
+     * A fresher version already stored for the key wins over this one.
+     */
     void upsert(
             @NotNull ByteBuffer key,
-            @NotNull ByteBuffer value) throws IOException;
+            @NotNull ByteBuffer value,
+            long timestamp) throws IOException;
 
     /**
      * Removes value by given key.
      */
-    void remove(@NotNull ByteBuffer key) throws IOException;
+    default void remove(@NotNull ByteBuffer key) throws IOException {
+        remove(key, Clock.currentTimeMicros());
+    }
+
+    /**
+     * Writes a tombstone by given key with the given timestamp.
+     * A fresher version already stored for the key wins over this one.
+     */
+    void remove(
+            @NotNull ByteBuffer key,
+            long timestamp) throws IOException;
+
+    /**
+     * Applies mutations in the given order stamped with the current time.
+     */
+    default void apply(@NotNull Iterable<Mutation> mutations) throws IOException {
+        apply(mutations, Clock.currentTimeMicros());
+    }
+
+    /**
+     * Applies mutations in the given order, all with the given timestamp, so the last mutation
+     * of a repeated key wins. A fresher version already stored for a key wins over its mutation.
+     * Implementations should apply the whole batch atomically if the storage allows it.
+     */
+    default void apply(
+            @NotNull Iterable<Mutation> mutations,
+            long timestamp) throws IOException {
+        for (final Mutation mutation : Mutation.latest(mutations)) {
+            if (mutation.isRemove()) {
+                remove(mutation.getKey(), timestamp);
+            } else {
+                upsert(mutation.getKey(), mutation.getValue(), timestamp);
+            }
+        }
+    }
 
     /**
      * Performs compaction.
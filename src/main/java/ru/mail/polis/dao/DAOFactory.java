@@ -29,18 +29,67 @@ import org.jetbrains.annotations.NotNull;
 public final class DAOFactory {
     static final long MAX_HEAP = 256 * 1024 * 1024;
 
+    /**
+     * Storage engines available to {@link #create(File, StorageConfig)}.
+     */
+    public enum Engine {
+        ROCKSDB,
+        LSM
+    }
+
     private DAOFactory() {
         // Not instantiatable
     }
 
     /**
-     * Construct a {@link DAO} instance.
+     * Construct a {@link DAO} instance configured by {@code dao.profile}, {@code dao.engine},
+     * {@code dao.cache.size} and {@code dao.tombstone.grace} (milliseconds) system properties.
      *
      * @param data local disk folder to persist the data to
      * @return a storage instance
      */
     @NotNull
     public static DAO create(@NotNull final File data) throws IOException {
+        final String profile = System.getProperty("dao.profile", StorageConfig.Profile.DEFAULT.name());
+        final StorageConfig.Builder config = StorageConfig.builder(StorageConfig.Profile.valueOf(profile))
+                .engine(Engine.valueOf(System.getProperty("dao.engine", Engine.ROCKSDB.name())));
+        final Long rowCacheSize = Long.getLong("dao.cache.size");
+        if (rowCacheSize != null) {
+            config.rowCacheSize(rowCacheSize);
+        }
+        final Long tombstoneGrace = Long.getLong("dao.tombstone.grace");
+        if (tombstoneGrace != null) {
+            config.tombstoneGraceMillis(tombstoneGrace);
+        }
+        return create(data, config.build());
+    }
+
+    /**
+     * Construct a {@link DAO} instance backed by the given engine with the default tuning.
+     *
+     * @param data   local disk folder to persist the data to
+     * @param engine storage engine to use
+     * @return a storage instance
+     */
+    @NotNull
+    public static DAO create(
+            @NotNull final File data,
+            @NotNull final Engine engine) throws IOException {
+        return create(data, StorageConfig.builder(StorageConfig.Profile.DEFAULT).engine(engine).build());
+    }
+
+    /**
+     * Construct a tuned {@link DAO} instance.
+     * Point reads are served through an off-heap row cache if its size is set.
+     *
+     * @param data   local disk folder to persist the data to
+     * @param config storage engine and its tuning
+     * @return a storage instance
+     */
+    @NotNull
+    public static DAO create(
+            @NotNull final File data,
+            @NotNull final StorageConfig config) throws IOException {
         if (Runtime.getRuntime().maxMemory() > MAX_HEAP) {
             throw new IllegalStateException("The heap is too big. Consider setting Xmx.");
         }
@@ -52,6 +101,17 @@ public final class DAOFactory {
         if (!data.isDirectory()) {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
-        return new RocksDaoImpl(data);
+        final DAO dao;
+        switch (config.getEngine()) {
+            case LSM:
+                dao = new LsmDao(data, config.getMemtableSize(), config.getTombstoneGraceMillis());
+                break;
+            case ROCKSDB:
+            default:
+                dao = new RocksDaoImpl(data, config);
+                break;
+        }
+        final long rowCacheSize = config.getRowCacheSize();
+        return rowCacheSize > 0 ? new CachingDao(dao, rowCacheSize) : dao;
     }
 }
@@ -0,0 +1,64 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link Cursor} over the {@link Record} iterators of the storages without a cursor of their own.
+ */
+final class IteratorCursor implements Cursor {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final DAO dao;
+    private CloseableIterator<Record> records;
+    private ByteBuffer key = EMPTY;
+    private ByteBuffer value = EMPTY;
+
+    /**
+     * Creates cursor opening the ranges of the storage.
+     */
+    IteratorCursor(@NotNull final DAO dao) {
+        this.dao = dao;
+        this.records = Iters.empty();
+    }
+
+    @Override
+    public void seek(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        records.close();
+        records = dao.range(from, to);
+    }
+
+    @Override
+    public boolean next() {
+        if (!records.hasNext()) {
+            return false;
+        }
+        final Record record = records.next();
+        key = record.getKey();
+        value = record.getValue();
+        return true;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer key() {
+        return key;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer value() {
+        return value;
+    }
+
+    @Override
+    public void close() {
+        records.close();
+    }
+}
@@ -16,8 +16,11 @@
 
 package ru.mail.polis.dao;
 
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.function.BinaryOperator;
 import java.util.function.Function;
 
 import org.jetbrains.annotations.NotNull;
@@ -31,7 +34,7 @@ import com.google.common.base.Functions;
  */
 public final class Iters {
 
-    private static final Iterator<Object> EMPTY = new Iterator<>() {
+    private static final CloseableIterator<Object> EMPTY = new CloseableIterator<>() {
         @Override
         public boolean hasNext() {
             return false;
@@ -41,6 +44,11 @@ public final class Iters {
         public Object next() {
             throw new NoSuchElementException("Next on empty iterator");
         }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
     };
 
     private Iters() {
@@ -48,8 +56,25 @@ public final class Iters {
     }
 
     @SuppressWarnings("unchecked")
-    public static <E> Iterator<E> empty() {
-        return (Iterator<E>) EMPTY;
+    public static <E> CloseableIterator<E> empty() {
+        return (CloseableIterator<E>) EMPTY;
+    }
+
+    /**
+     * Binds the release action to the iterator, the action runs once on the first close.
+     */
+    public static <E> CloseableIterator<E> closeable(
+            @NotNull final Iterator<E> iter,
+            @NotNull final Runnable release) {
+        return new ReleasingIterator<>(iter, release);
+    }
+
+    /**
+     * Adapts iterator which holds no resources.
+     */
+    public static <E> CloseableIterator<E> closeable(@NotNull final Iterator<E> iter) {
+        return new ReleasingIterator<>(iter, () -> {
+        });
     }
 
     public static <E extends Comparable<E>> Iterator<E> until(
@@ -68,6 +93,60 @@ public final class Iters {
         return new CollapseEqualsIterator<>(iter);
     }
 
+    /**
+     * Merges the iterators sorted by the comparator, the elements equal by the comparator
+     * collapse into the one of the iterator earliest in the list.
+     */
+    public static <E> Iterator<E> merge(
+            @NotNull final List<? extends Iterator<E>> iters,
+            @NotNull final Comparator<? super E> comparator) {
+        return new MergingIterator<>(iters, comparator, (first, other) -> first);
+    }
+
+    /**
+     * Merges the iterators sorted by the comparator, the elements equal by the comparator
+     * collapse into one chosen by the resolver.
+     *
+     * @param resolver picks one of the equal elements, the one met first goes as the first argument
+     */
+    public static <E> Iterator<E> merge(
+            @NotNull final List<? extends Iterator<E>> iters,
+            @NotNull final Comparator<? super E> comparator,
+            @NotNull final BinaryOperator<E> resolver) {
+        return new MergingIterator<>(iters, comparator, resolver);
+    }
+
+    private static class ReleasingIterator<E> implements CloseableIterator<E> {
+        private final Iterator<E> iter;
+        private Runnable release;
+
+        ReleasingIterator(
+                @NotNull final Iterator<E> iter,
+                @NotNull final Runnable release) {
+            this.iter = iter;
+            this.release = release;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        @Override
+        public E next() {
+            return iter.next();
+        }
+
+        @Override
+        public void close() {
+            if (release != null) {
+                final Runnable action = release;
+                release = null;
+                action.run();
+            }
+        }
+    }
+
     private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
         private final Iterator<E> iter;
         private final E until;
@@ -128,11 +207,11 @@ public final class Iters {
 
             // Advance to the next distinct key
             this.next = null;
+            final Object key = keyExtractor.apply(result);
             while (iter.hasNext()) {
-                final E key = iter.next();
-                if (!keyExtractor.apply(key)
-                        .equals(keyExtractor.apply(result))) {
-                    this.next = key;
+                final E element = iter.next();
+                if (!keyExtractor.apply(element).equals(key)) {
+                    this.next = element;
                     break;
                 }
             }
@@ -140,4 +219,118 @@ public final class Iters {
             return result;
         }
     }
+
+    /**
+     * K-way merge over a binary heap of the iterator indexes, so nothing is allocated per element.
+     * Equal heads are ordered by the iterator index. Iterators are first touched by {@link #hasNext()}.
+     */
+    private static class MergingIterator<E> implements Iterator<E> {
+        private final Iterator<E>[] iters;
+        private final Comparator<? super E> comparator;
+        private final BinaryOperator<E> resolver;
+        private final E[] heads;
+        private final int[] heap;
+        private int size = -1;
+
+        @SuppressWarnings("unchecked")
+        MergingIterator(
+                @NotNull final List<? extends Iterator<E>> iters,
+                @NotNull final Comparator<? super E> comparator,
+                @NotNull final BinaryOperator<E> resolver) {
+            this.iters = (Iterator<E>[]) iters.toArray(new Iterator<?>[0]);
+            this.comparator = comparator;
+            this.resolver = resolver;
+            this.heads = (E[]) new Object[this.iters.length];
+            this.heap = new int[this.iters.length];
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (size < 0) {
+                size = 0;
+                for (int i = 0; i < iters.length; i++) {
+                    if (iters[i].hasNext()) {
+                        heads[i] = iters[i].next();
+                        heap[size] = i;
+                        siftUp(size++);
+                    }
+                }
+            }
+            return size > 0;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E result = heads[heap[0]];
+            advance();
+            while (size > 0 && comparator.compare(heads[heap[0]], result) == 0) {
+                result = resolver.apply(result, heads[heap[0]]);
+                advance();
+            }
+            return result;
+        }
+
+        /**
+         * Replaces the top head with the next element of its iterator.
+         */
+        private void advance() {
+            final int top = heap[0];
+            if (iters[top].hasNext()) {
+                heads[top] = iters[top].next();
+            } else {
+                heads[top] = null;
+                heap[0] = heap[--size];
+            }
+            if (size > 0) {
+                siftDown(0);
+            }
+        }
+
+        private boolean less(
+                final int a,
+                final int b) {
+            final int compared = comparator.compare(heads[a], heads[b]);
+            return compared < 0 || compared == 0 && a < b;
+        }
+
+        private void siftUp(final int from) {
+            int child = from;
+            while (child > 0) {
+                final int parent = (child - 1) >>> 1;
+                if (!less(heap[child], heap[parent])) {
+                    return;
+                }
+                swap(child, parent);
+                child = parent;
+            }
+        }
+
+        private void siftDown(final int from) {
+            int parent = from;
+            while (true) {
+                final int left = parent * 2 + 1;
+                if (left >= size) {
+                    return;
+                }
+                final int right = left + 1;
+                final int least = right < size && less(heap[right], heap[left]) ? right : left;
+                if (!less(heap[least], heap[parent])) {
+                    return;
+                }
+                swap(least, parent);
+                parent = least;
+            }
+        }
+
+        private void swap(
+                final int a,
+                final int b) {
+            final int index = heap[a];
+            heap[a] = heap[b];
+            heap[b] = index;
+        }
+    }
 }
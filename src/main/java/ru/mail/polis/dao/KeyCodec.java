@@ -0,0 +1,53 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Order-preserving key encoding for bytewise (unsigned) comparators.
+ *
+ * <p>{@link ru.mail.polis.Record#compareTo} compares key bytes as signed values,
+ * so flipping the sign bit of every byte makes unsigned order match it.
+ * The codec is stateless and thread-safe.
+ */
+final class KeyCodec {
+
+    private KeyCodec() {
+    }
+
+    /**
+     * Encodes key to a fresh array with a single copy.
+     */
+    @NotNull
+    static byte[] encode(@NotNull final ByteBuffer key) {
+        final int position = key.position();
+        final byte[] encoded = new byte[key.remaining()];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = (byte) (key.get(position + i) ^ Byte.MIN_VALUE);
+        }
+        return encoded;
+    }
+
+    /**
+     * Decodes the array to the beginning of the target, which must be long enough.
+     */
+    static void decode(
+            @NotNull final byte[] encoded,
+            @NotNull final byte[] target) {
+        for (int i = 0; i < encoded.length; i++) {
+            target[i] = (byte) (encoded[i] ^ Byte.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Decodes the array in place and wraps it without copying.
+     */
+    @NotNull
+    static ByteBuffer decode(@NotNull final byte[] encoded) {
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] ^= Byte.MIN_VALUE;
+        }
+        return ByteBuffer.wrap(encoded);
+    }
+}
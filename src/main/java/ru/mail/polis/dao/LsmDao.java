@@ -0,0 +1,325 @@
+package ru.mail.polis.dao;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Record;
+import ru.mail.polis.util.Clock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Log-structured merge tree {@link DAO}: a concurrent skip list memtable
+ * flushed to immutable memory-mapped {@link SSTable}s. Writes to the memtable go to
+ * its {@link WriteAheadLog} first, the logs left by a crash are replayed on open.
+ */
+public class LsmDao implements DAO {
+    private static final String SUFFIX = ".db";
+    private static final String TEMP = ".tmp";
+    private static final String LOG = ".log";
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final File base;
+    private final long flushThreshold;
+    private final long tombstoneGraceMillis;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object compactionLock = new Object();
+
+    private volatile TableSet tables;
+
+    LsmDao(@NotNull final File base, final long flushThreshold) throws IOException {
+        this(base, flushThreshold, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens the storage in the given folder.
+     *
+     * @param tombstoneGraceMillis age of a tombstone after which compaction may drop it,
+     *                             {@link Long#MAX_VALUE} keeps them forever
+     */
+    LsmDao(
+            @NotNull final File base,
+            final long flushThreshold,
+            final long tombstoneGraceMillis) throws IOException {
+        this.base = base;
+        this.flushThreshold = flushThreshold;
+        this.tombstoneGraceMillis = tombstoneGraceMillis;
+        final NavigableMap<Integer, Table> ssTables = new TreeMap<>();
+        final List<File> logs = new ArrayList<>();
+        final File[] files = base.listFiles();
+        if (files == null) {
+            throw new CustomDaoException("Can't list " + base, null);
+        }
+        for (final File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(TEMP)) {
+                Files.delete(file.toPath());
+                continue;
+            }
+            if (name.endsWith(LOG)) {
+                logs.add(file);
+                continue;
+            }
+            if (!name.endsWith(SUFFIX)) {
+                continue;
+            }
+            try {
+                final int generation = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+                ssTables.put(generation, new SSTable(file));
+            } catch (NumberFormatException ignored) {
+                // Not our file
+            }
+        }
+        int generation = ssTables.isEmpty() ? 0 : ssTables.lastKey() + 1;
+        if (!logs.isEmpty()) {
+            // The writes of all the logs make a single table, the versions sort out the order
+            final MemTable recovered = new MemTable();
+            for (final File log : logs) {
+                WriteAheadLog.replay(log, recovered);
+            }
+            if (!recovered.isEmpty()) {
+                ssTables.put(generation, writeTable(recovered.iterator(EMPTY), generation));
+                generation++;
+            }
+            for (final File log : logs) {
+                Files.delete(log.toPath());
+            }
+        }
+        this.tables = TableSet.of(logOf(generation), ssTables, generation);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        final Iterator<Cell> alive = Iterators.filter(cellIterator(from), cell -> !cell.getValue().isTombstone());
+        final Iterator<Record> records = Iterators.transform(
+                alive,
+                cell -> Record.of(cell.getKey(), cell.getValue().getData()));
+        // Tables are memory mapped and live until GC, so there is nothing to release
+        return Iters.closeable(records);
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> versionedIterator(@NotNull final ByteBuffer from) throws IOException {
+        final Iterator<Record> records = Iterators.transform(
+                cellIterator(from),
+                cell -> Record.of(cell.getKey(), ByteBuffer.wrap(cell.getValue().encode())));
+        return Iters.closeable(records);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final Value value = getVersioned(key);
+        if (value.isTombstone()) {
+            throw new CustomNoSuchElementException("Key removed " + key.toString());
+        }
+        return value.getData();
+    }
+
+    @NotNull
+    @Override
+    public Value getVersioned(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final Iterator<Cell> cells = cellIterator(key);
+        if (cells.hasNext()) {
+            final Cell cell = cells.next();
+            if (cell.getKey().equals(key)) {
+                return cell.getValue();
+            }
+        }
+        throw new CustomNoSuchElementException("Key not found " + key.toString());
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long timestamp) throws IOException {
+        final boolean overflow;
+        lock.readLock().lock();
+        try {
+            final TableSet current = tables;
+            current.log.append(Collections.singletonList(new Cell(key, Value.of(timestamp, value))));
+            final MemTable mem = current.mem;
+            mem.upsert(key, value, timestamp);
+            overflow = mem.sizeInBytes() > flushThreshold;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (overflow) {
+            flush(false);
+        }
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key, final long timestamp) throws IOException {
+        final boolean overflow;
+        lock.readLock().lock();
+        try {
+            final TableSet current = tables;
+            current.log.append(Collections.singletonList(new Cell(key, Value.tombstone(timestamp))));
+            final MemTable mem = current.mem;
+            mem.remove(key, timestamp);
+            overflow = mem.sizeInBytes() > flushThreshold;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (overflow) {
+            flush(false);
+        }
+    }
+
+    @Override
+    public void apply(
+            @NotNull final Iterable<Mutation> mutations,
+            final long timestamp) throws IOException {
+        final boolean overflow;
+        final List<Cell> cells = new ArrayList<>();
+        for (final Mutation mutation : Mutation.latest(mutations)) {
+            cells.add(new Cell(
+                    mutation.getKey(),
+                    mutation.isRemove() ? Value.tombstone(timestamp) : Value.of(timestamp, mutation.getValue())));
+        }
+        lock.readLock().lock();
+        try {
+            final TableSet current = tables;
+            // A single entry, so a crash keeps the whole batch or none of it
+            current.log.append(cells);
+            final MemTable mem = current.mem;
+            for (final Cell cell : cells) {
+                if (cell.getValue().isTombstone()) {
+                    mem.remove(cell.getKey(), timestamp);
+                } else {
+                    mem.upsert(cell.getKey(), cell.getValue().getData(), timestamp);
+                }
+            }
+            overflow = mem.sizeInBytes() > flushThreshold;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (overflow) {
+            flush(false);
+        }
+    }
+
+    @Override
+    public void compact() throws IOException {
+        flush(true);
+        synchronized (compactionLock) {
+            final TableSet snapshot;
+            lock.writeLock().lock();
+            try {
+                snapshot = tables;
+                if (snapshot.ssTables.size() <= 1) {
+                    return;
+                }
+                tables = snapshot.startCompaction();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            // A write with an explicit timestamp (a late replica write, a handoff) may be older than
+            // a tombstone, it would resurrect the key if the tombstone was gone, so only old enough ones go
+            final long purgeBefore = Clock.currentTimeMicros() - TimeUnit.MILLISECONDS.toMicros(tombstoneGraceMillis);
+            final List<Iterator<Cell>> iters = new ArrayList<>(snapshot.ssTables.size());
+            for (final Table table : snapshot.ssTables.values()) {
+                iters.add(table.iterator(EMPTY));
+            }
+            final Iterator<Cell> kept = Iterators.filter(
+                    Iters.merge(iters, Cell.KEY_ORDER, Cell::fresher),
+                    cell -> !cell.getValue().isTombstone() || cell.getValue().getTimestamp() >= purgeBefore);
+            final Table compacted = writeTable(kept, snapshot.generation);
+
+            lock.writeLock().lock();
+            try {
+                tables = tables.replaceCompacted(snapshot.ssTables.keySet(), compacted, snapshot.generation);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (final int generation : snapshot.ssTables.keySet()) {
+                Files.delete(fileOf(generation).toPath());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush(true);
+        tables.log.delete();
+    }
+
+    private void flush(final boolean force) throws IOException {
+        final TableSet snapshot;
+        lock.writeLock().lock();
+        try {
+            snapshot = tables;
+            if (snapshot.mem.isEmpty() || !force && snapshot.mem.sizeInBytes() <= flushThreshold) {
+                return;
+            }
+            tables = snapshot.markAsFlushing(logOf(snapshot.generation + 1));
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        final Table flushed = writeTable(snapshot.mem.iterator(EMPTY), snapshot.generation);
+
+        lock.writeLock().lock();
+        try {
+            tables = tables.moveToFlushed(snapshot.mem, flushed, snapshot.generation);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        snapshot.log.delete();
+    }
+
+    private Table writeTable(
+            @NotNull final Iterator<Cell> cells,
+            final int generation) throws IOException {
+        final File temp = new File(base, generation + TEMP);
+        SSTable.write(temp, cells);
+        final File file = fileOf(generation);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return new SSTable(file);
+    }
+
+    private File fileOf(final int generation) {
+        return new File(base, generation + SUFFIX);
+    }
+
+    /**
+     * Returns the log of the memtable created along with the given generation, the generations grow,
+     * so no two memtables share a log.
+     */
+    @NotNull
+    private WriteAheadLog logOf(final int generation) {
+        return new WriteAheadLog(new File(base, generation + LOG));
+    }
+
+    private Iterator<Cell> cellIterator(@NotNull final ByteBuffer from) throws IOException {
+        final TableSet snapshot = tables;
+        final List<Iterator<Cell>> iters =
+                new ArrayList<>(snapshot.ssTables.size() + snapshot.flushing.size() + 1);
+        iters.add(snapshot.mem.iterator(from));
+        for (final Table table : snapshot.flushing) {
+            iters.add(table.iterator(from));
+        }
+        for (final Table table : snapshot.ssTables.values()) {
+            iters.add(table.iterator(from));
+        }
+        return Iters.merge(iters, Cell.KEY_ORDER, Cell::fresher);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.mail.polis.dao;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mutable in-memory {@link Table} on top of a concurrent skip list.
+ */
+final class MemTable implements Table {
+    /**
+     * Rough heap footprint of a skip list node with its key and value objects.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final NavigableMap<ByteBuffer, Value> map = new ConcurrentSkipListMap<>();
+    private final AtomicLong sizeInBytes = new AtomicLong();
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return Iterators.transform(
+                map.tailMap(from).entrySet().iterator(),
+                e -> new Cell(e.getKey(), e.getValue()));
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value, final long timestamp) {
+        put(key, Value.of(timestamp, copyOf(value)));
+    }
+
+    void remove(@NotNull final ByteBuffer key, final long timestamp) {
+        put(key, Value.tombstone(timestamp));
+    }
+
+    private void put(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        final ByteBuffer copy = copyOf(key);
+        Value previous = map.putIfAbsent(copy, value);
+        if (previous == null) {
+            sizeInBytes.addAndGet(ENTRY_OVERHEAD + key.remaining() + value.sizeInBytes());
+            return;
+        }
+        // Keep the freshest version if writes with explicit timestamps race
+        while (previous.compareTo(value) < 0) {
+            if (map.replace(copy, previous, value)) {
+                sizeInBytes.addAndGet(value.sizeInBytes() - previous.sizeInBytes());
+                return;
+            }
+            previous = map.get(copy);
+        }
+    }
+
+    private static ByteBuffer copyOf(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        return copy.flip();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Single upsert or removal of a batch applied by {@link DAO#apply(Iterable, long)}.
+ */
+public final class Mutation {
+    private final ByteBuffer key;
+    @Nullable
+    private final ByteBuffer value;
+
+    private Mutation(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    public static Mutation upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return new Mutation(key, value);
+    }
+
+    public static Mutation remove(@NotNull final ByteBuffer key) {
+        return new Mutation(key, null);
+    }
+
+    /**
+     * Keeps the last mutation of every key, in the order the keys first appear.
+     * A batch stamped with a single timestamp can't order the mutations of a key otherwise.
+     */
+    @NotNull
+    public static Collection<Mutation> latest(@NotNull final Iterable<Mutation> mutations) {
+        final Map<ByteBuffer, Mutation> latest = new LinkedHashMap<>();
+        for (final Mutation mutation : mutations) {
+            latest.put(mutation.key, mutation);
+        }
+        return latest.values();
+    }
+
+    @NotNull
+    public ByteBuffer getKey() {
+        return key.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the value to upsert.
+     *
+     * @throws IllegalStateException if this is a removal
+     */
+    @NotNull
+    public ByteBuffer getValue() {
+        if (value == null) {
+            throw new IllegalStateException("Removal has no value");
+        }
+        return value.asReadOnlyBuffer();
+    }
+
+    public boolean isRemove() {
+        return value == null;
+    }
+}
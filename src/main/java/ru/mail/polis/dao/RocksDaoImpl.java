@@ -1,83 +1,251 @@
 package ru.mail.polis.dao;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Striped;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
 import org.rocksdb.BuiltinComparator;
+import org.rocksdb.Cache;
+import org.rocksdb.CompressionType;
+import org.rocksdb.Filter;
+import org.rocksdb.LRUCache;
 import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+import org.rocksdb.Snapshot;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 import ru.mail.polis.Record;
+import ru.mail.polis.util.Clock;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 
-import static ru.mail.polis.util.Util.fromByteBufferToByteArray;
-
+/**
+ * {@link DAO} over RocksDB storing the versions encoded by {@link ValueCodec}.
+ * Writes are blind merges keeping the bytewise greatest, that is the freshest, version,
+ * so a write never reads the stored one.
+ */
 public class RocksDaoImpl implements DAO {
+    private static final int LOCK_STRIPES = 1024;
+    private static final int LEVELS = 7;
+    // Built-in operator keeping the bytewise greatest of the stored value and the operands
+    private static final String MAX_MERGE = "max";
+
+    // Writers share the stripes, only dropping a tombstone excludes the writers of its stripe
+    private final Striped<ReadWriteLock> locks = Striped.readWriteLock(LOCK_STRIPES);
+    private final long tombstoneGraceMillis;
+    private final Cache blockCache;
+    private final Filter bloomFilter;
+    private final Options options;
+    private final long readahead;
     private RocksDB db;
 
-    RocksDaoImpl(@NotNull final File data) throws IOException {
+    RocksDaoImpl(@NotNull final File data, @NotNull final StorageConfig config) throws IOException {
         RocksDB.loadLibrary();
+        readahead = config.getReadaheadSize();
+        tombstoneGraceMillis = config.getTombstoneGraceMillis();
+        blockCache = new LRUCache(config.getBlockCacheSize());
+        final BlockBasedTableConfig table = new BlockBasedTableConfig()
+                .setBlockCache(blockCache)
+                .setCacheIndexAndFilterBlocks(true);
+        if (config.getBloomBitsPerKey() > 0) {
+            bloomFilter = new BloomFilter(config.getBloomBitsPerKey(), false);
+            table.setFilterPolicy(bloomFilter);
+        } else {
+            bloomFilter = null;
+        }
         // the Options class contains a set of configurable DB options
         // that determines the behaviour of the database.
+        options = new Options()
+                .setCreateIfMissing(true)
+                .setMergeOperatorName(MAX_MERGE)
+                .setComparator(BuiltinComparator.BYTEWISE_COMPARATOR)
+                .setTableFormatConfig(table)
+                .setWriteBufferSize(config.getMemtableSize())
+                .setMaxBackgroundJobs(config.getBackgroundJobs())
+                .setUseDirectReads(config.isDirectIo())
+                .setUseDirectIoForFlushAndCompaction(config.isDirectIo())
+                .setCompressionPerLevel(compressionPerLevel(config));
         try {
-            final Options options = new Options()
-                    .setCreateIfMissing(true)
-                    .setComparator(BuiltinComparator.BYTEWISE_COMPARATOR);
             db = RocksDB.open(options, data.getPath());
         } catch (RocksDBException e) {
+            close();
             throw new CustomDaoException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Stretches the configured compressions to all the levels repeating the last one.
+     */
+    private static List<CompressionType> compressionPerLevel(@NotNull final StorageConfig config) {
+        final List<CompressionType> configured = config.getCompressionPerLevel();
+        final List<CompressionType> levels = new ArrayList<>(LEVELS);
+        for (int i = 0; i < LEVELS; i++) {
+            levels.add(configured.get(Math.min(i, configured.size() - 1)));
+        }
+        return levels;
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return new RocksDbToRecordIterator(db, KeyCodec.encode(from), null, readahead, false);
+    }
+
     @NotNull
     @Override
-    public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
-        final byte[] arrayFrom = getKeyByteBuffer(from);
-        final RocksIterator rocksIterator = db.newIterator();
-        rocksIterator.seek(arrayFrom);
-        return new RocksDbToRecordIterator(rocksIterator);
+    public CloseableIterator<Record> versionedIterator(@NotNull final ByteBuffer from) throws IOException {
+        return new RocksDbToRecordIterator(db, KeyCodec.encode(from), null, readahead, true);
     }
 
+    /**
+     * Pushes the bound down to the engine, so it neither reads blocks past "to"
+     * nor walks the tombstones beyond it.
+     */
+    @NotNull
     @Override
-    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
-        final byte[] arrayKey = getKeyByteBuffer(key);
-        final byte[] arrayValue = fromByteBufferToByteArray(value);
-        try {
-            db.put(arrayKey, arrayValue);
-        } catch (RocksDBException e) {
-            throw new CustomDaoException(e.getMessage(), e);
+    public CloseableIterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        if (to == null) {
+            return iterator(from);
         }
+        if (from.compareTo(to) >= 0) {
+            return Iters.empty();
+        }
+        return new RocksDbToRecordIterator(db, KeyCodec.encode(from), KeyCodec.encode(to), readahead, false);
     }
 
+    @NotNull
     @Override
-    public void remove(@NotNull final ByteBuffer key) throws IOException {
-        final byte[] arrayKey = getKeyByteBuffer(key);
-        try {
-            db.delete(arrayKey);
+    public Cursor cursor() {
+        return new RocksCursor(db, readahead);
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long timestamp) throws IOException {
+        write(key, Value.of(timestamp, value));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key, final long timestamp) throws IOException {
+        write(key, Value.tombstone(timestamp));
+    }
+
+    /**
+     * Writes the batch atomically with the same fresher-wins rule as single writes,
+     * a key already holding a fresher version keeps it.
+     */
+    @Override
+    public void apply(
+            @NotNull final Iterable<Mutation> mutations,
+            final long timestamp) throws IOException {
+        final Map<ByteBuffer, Value> latest = new LinkedHashMap<>();
+        for (final Mutation mutation : Mutation.latest(mutations)) {
+            latest.put(
+                    mutation.getKey(),
+                    mutation.isRemove() ? Value.tombstone(timestamp) : Value.of(timestamp, mutation.getValue()));
+        }
+        final List<ReadWriteLock> stripes = ImmutableList.copyOf(locks.bulkGet(latest.keySet()));
+        for (final ReadWriteLock stripe : stripes) {
+            stripe.readLock().lock();
+        }
+        try (WriteBatch batch = new WriteBatch();
+             WriteOptions options = new WriteOptions()) {
+            for (final Map.Entry<ByteBuffer, Value> entry : latest.entrySet()) {
+                batch.merge(KeyCodec.encode(entry.getKey()), ValueCodec.encode(entry.getValue()));
+            }
+            db.write(options, batch);
         } catch (RocksDBException e) {
             throw new CustomDaoException(e.getMessage(), e);
+        } finally {
+            for (final ReadWriteLock stripe : stripes) {
+                stripe.readLock().unlock();
+            }
         }
     }
 
     @Override
     public void close() {
-        db.close();
+        if (db != null) {
+            db.close();
+        }
+        options.close();
+        if (bloomFilter != null) {
+            bloomFilter.close();
+        }
+        blockCache.close();
     }
 
     @NotNull
     @Override
     public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
-        final byte[] keyArray = getKeyByteBuffer(key);
+        final Value value = getVersioned(key);
+        if (value.isTombstone()) {
+            throw new CustomNoSuchElementException("Key removed " + key.toString());
+        }
+        return value.getData();
+    }
+
+    @NotNull
+    @Override
+    public Value getVersioned(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final byte[] keyArray = KeyCodec.encode(key);
         try {
             final byte[] valueByteArray = db.get(keyArray);
             if (valueByteArray == null) {
                 throw new CustomNoSuchElementException("Key not found " + key.toString());
             }
-            return ByteBuffer.wrap(valueByteArray);
+            return ValueCodec.decode(valueByteArray);
+        } catch (RocksDBException e) {
+            throw new CustomDaoException(e.getMessage(), e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public List<ByteBuffer> getAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final List<Value> versions = getAllVersioned(keys);
+        final List<ByteBuffer> values = new ArrayList<>(versions.size());
+        for (final Value value : versions) {
+            values.add(value == null || value.isTombstone() ? null : value.getData());
+        }
+        return values;
+    }
+
+    @NotNull
+    @Override
+    public List<Value> getAllVersioned(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final List<byte[]> arrayKeys = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            arrayKeys.add(KeyCodec.encode(key));
+        }
+        try {
+            final List<byte[]> arrayValues = db.multiGetAsList(arrayKeys);
+            final List<Value> values = new ArrayList<>(arrayValues.size());
+            for (final byte[] arrayValue : arrayValues) {
+                values.add(arrayValue == null ? null : ValueCodec.decode(arrayValue));
+            }
+            return values;
         } catch (RocksDBException e) {
             throw new CustomDaoException(e.getMessage(), e);
         }
@@ -86,54 +254,287 @@ public class RocksDaoImpl implements DAO {
     @Override
     public void compact() throws IOException {
         try {
+            purgeTombstones();
             db.compactRange();
         } catch (RocksDBException exception) {
             throw new CustomDaoException("Compact errxcor", exception);
         }
     }
 
-    private byte[] getKeyByteBuffer(@NotNull final ByteBuffer byteBuffer) {
-        synchronized (this) {
-            final byte[] array = fromByteBufferToByteArray(byteBuffer);
-            for (int i = 0; i < array.length; i++) {
-                array[i] -= Byte.MIN_VALUE;
+    /**
+     * Merges the version, the fresher of it and the stored one is kept.
+     */
+    private void write(@NotNull final ByteBuffer key, @NotNull final Value value) throws IOException {
+        final Lock lock = locks.get(key).readLock();
+        lock.lock();
+        try {
+            db.merge(KeyCodec.encode(key), ValueCodec.encode(value));
+        } catch (RocksDBException e) {
+            throw new CustomDaoException(e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the tombstones older than the grace period, RocksDB drops the deletes in turn
+     * once they reach the last level. A write with an explicit timestamp (a late replica write, a handoff)
+     * may be older than a tombstone, it would resurrect the key if the tombstone was gone, so only old enough
+     * ones go, as in {@link LsmDao#compact()}.
+     */
+    private void purgeTombstones() throws RocksDBException {
+        final long purgeBefore = Clock.currentTimeMicros() - TimeUnit.MILLISECONDS.toMicros(tombstoneGraceMillis);
+        if (purgeBefore <= 0) {
+            return;
+        }
+        try (ReadOptions readOptions = new ReadOptions().setReadaheadSize(readahead);
+             RocksIterator iterator = db.newIterator(readOptions)) {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                final byte[] stored = iterator.value();
+                if (ValueCodec.isTombstone(stored) && ValueCodec.timestampOf(stored) < purgeBefore) {
+                    purge(iterator.key(), purgeBefore);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the key unless a fresh write has come meanwhile. The stripe is held exclusively,
+     * so no write lands between the check and the delete.
+     */
+    private void purge(
+            @NotNull final byte[] arrayKey,
+            final long purgeBefore) throws RocksDBException {
+        final byte[] key = new byte[arrayKey.length];
+        KeyCodec.decode(arrayKey, key);
+        final Lock lock = locks.get(ByteBuffer.wrap(key)).writeLock();
+        lock.lock();
+        try {
+            final byte[] stored = db.get(arrayKey);
+            if (stored != null && ValueCodec.isTombstone(stored) && ValueCodec.timestampOf(stored) < purgeBefore) {
+                db.delete(arrayKey);
             }
-            return array;
+        } finally {
+            lock.unlock();
         }
     }
 
-    private static class RocksDbToRecordIterator implements Iterator<Record> {
+    /**
+     * Cursor over a snapshot copying the keys and values to the reused buffers.
+     * The native iterator gives fresh arrays, the cursor reads each of them once
+     * and allocates nothing else per record.
+     */
+    private static final class RocksCursor implements Cursor {
+        private static final int INITIAL_CAPACITY = 256;
+
+        private final RocksDB db;
+        private final Snapshot snapshot;
+        private final long readahead;
+        private ReadOptions readOptions;
+        private Slice upperBound;
+        private RocksIterator iterator;
+        private boolean positioned;
+        private ByteBuffer key = ByteBuffer.allocate(INITIAL_CAPACITY);
+        private ByteBuffer value = ByteBuffer.allocate(INITIAL_CAPACITY);
+        private boolean closed;
 
+        RocksCursor(
+                @NotNull final RocksDB db,
+                final long readahead) {
+            this.db = db;
+            this.readahead = readahead;
+            this.snapshot = db.getSnapshot();
+        }
+
+        @Override
+        public void seek(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            if (closed) {
+                throw new IllegalStateException("Cursor is closed");
+            }
+            release();
+            if (to != null && from.compareTo(to) >= 0) {
+                return;
+            }
+            readOptions = new ReadOptions()
+                    .setSnapshot(snapshot)
+                    .setReadaheadSize(readahead);
+            if (to != null) {
+                upperBound = new Slice(KeyCodec.encode(to));
+                readOptions.setIterateUpperBound(upperBound);
+            }
+            iterator = db.newIterator(readOptions);
+            iterator.seek(KeyCodec.encode(from));
+            positioned = false;
+        }
+
+        @Override
+        public boolean next() {
+            if (iterator == null) {
+                return false;
+            }
+            if (positioned) {
+                iterator.next();
+            }
+            positioned = true;
+            while (iterator.isValid()) {
+                final byte[] stored = iterator.value();
+                if (!ValueCodec.isTombstone(stored)) {
+                    final byte[] encodedKey = iterator.key();
+                    key = reuse(key, encodedKey.length);
+                    KeyCodec.decode(encodedKey, key.array());
+                    value = reuse(value, stored.length - ValueCodec.DATA_OFFSET);
+                    System.arraycopy(stored, ValueCodec.DATA_OFFSET, value.array(), 0, value.limit());
+                    return true;
+                }
+                // A tombstone
+                iterator.next();
+            }
+            release();
+            return false;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return key;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            return value;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            release();
+            db.releaseSnapshot(snapshot);
+        }
+
+        private void release() {
+            if (iterator != null) {
+                iterator.close();
+                iterator = null;
+            }
+            if (readOptions != null) {
+                readOptions.close();
+                readOptions = null;
+            }
+            if (upperBound != null) {
+                upperBound.close();
+                upperBound = null;
+            }
+        }
+
+        /**
+         * Returns the buffer cleared to the length, a bigger one if it doesn't fit.
+         */
+        @NotNull
+        private static ByteBuffer reuse(
+                @NotNull final ByteBuffer buffer,
+                final int length) {
+            if (buffer.capacity() < length) {
+                return ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2)).limit(length);
+            }
+            buffer.clear().limit(length);
+            return buffer;
+        }
+    }
+
+    /**
+     * Iterator over a snapshot, optionally bounded by an exclusive upper key.
+     * A versioned iterator returns the {@link Value} envelopes, tombstones included.
+     * The native iterator and the snapshot are released on close or as soon as the iterator is exhausted.
+     * Each value is copied out of the native iterator once, when it is positioned on the value.
+     */
+    private static class RocksDbToRecordIterator implements CloseableIterator<Record> {
+
+        private final RocksDB db;
+        private final Snapshot snapshot;
+        private final Slice upperBound;
+        private final ReadOptions readOptions;
         private final RocksIterator currentRocksIter;
+        private final boolean versioned;
+        // Value at the current position, null once exhausted
+        private byte[] stored;
+        private boolean closed;
 
-        RocksDbToRecordIterator(final RocksIterator rocksIterator) {
-            currentRocksIter = rocksIterator;
+        RocksDbToRecordIterator(
+                @NotNull final RocksDB db,
+                @NotNull final byte[] from,
+                @Nullable final byte[] to,
+                final long readahead,
+                final boolean versioned) {
+            this.db = db;
+            this.versioned = versioned;
+            this.snapshot = db.getSnapshot();
+            this.readOptions = new ReadOptions()
+                    .setSnapshot(snapshot)
+                    .setReadaheadSize(readahead);
+            if (to == null) {
+                this.upperBound = null;
+            } else {
+                this.upperBound = new Slice(to);
+                readOptions.setIterateUpperBound(upperBound);
+            }
+            currentRocksIter = db.newIterator(readOptions);
+            currentRocksIter.seek(from);
+            skipTombstones();
         }
 
         @Override
         public boolean hasNext() {
-            return currentRocksIter.isValid();
+            return !closed && stored != null;
         }
 
         @Override
         public Record next() {
-            if (currentRocksIter.isValid()) {
-                final ByteBuffer key = getKeyByteBuffer(currentRocksIter.key());
-                final ByteBuffer value = ByteBuffer.wrap(currentRocksIter.value());
-                final Record res = Record.of(key, value);
+            if (hasNext()) {
+                // key() already returns a fresh array, so decode it in place
+                final ByteBuffer key = KeyCodec.decode(currentRocksIter.key());
+                final Value value = ValueCodec.decode(stored);
+                final Record res = Record.of(key, versioned ? ByteBuffer.wrap(value.encode()) : value.getData());
                 currentRocksIter.next();
+                skipTombstones();
                 return res;
             } else {
                 throw new IllegalStateException("No next found");
             }
         }
 
-        private ByteBuffer getKeyByteBuffer(@NotNull final byte[] array) {
-            final byte[] bytes = array.clone();
-            for (int i = 0; i < bytes.length; i++) {
-                bytes[i] += Byte.MIN_VALUE;
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            currentRocksIter.close();
+            readOptions.close();
+            if (upperBound != null) {
+                upperBound.close();
+            }
+            db.releaseSnapshot(snapshot);
+        }
+
+        /**
+         * Positions on the next record to return, reading its value.
+         */
+        private void skipTombstones() {
+            while (currentRocksIter.isValid()) {
+                stored = currentRocksIter.value();
+                if (versioned || !ValueCodec.isTombstone(stored)) {
+                    return;
+                }
+                currentRocksIter.next();
             }
-            return ByteBuffer.wrap(bytes);
+            stored = null;
+            close();
         }
     }
 }
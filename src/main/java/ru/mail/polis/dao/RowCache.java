@@ -0,0 +1,229 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded off-heap cache of encoded rows with CLOCK eviction.
+ *
+ * <p>The cache is split into independently locked segments. Each segment keeps
+ * entries {@code [flags][key length][value length][key][value]} in a ring inside
+ * a direct buffer, so variable-sized rows take exactly their size. The eviction hand
+ * is the head of the ring: a referenced entry gets a second chance by being moved to
+ * the tail, an unreferenced one is dropped. Only the key index lives on heap.
+ */
+final class RowCache {
+    private static final int HEADER = 1 + Integer.BYTES * 2;
+    private static final byte LIVE = 1;
+    private static final byte REFERENCED = 2;
+    private static final byte PADDING = 4;
+
+    private final Segment[] segments;
+    private final int maxEntrySize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    RowCache(final long capacity, final int segmentCount) {
+        final int segmentCapacity = (int) Math.min(Integer.MAX_VALUE, capacity / segmentCount);
+        if (segmentCapacity <= HEADER) {
+            throw new IllegalArgumentException("Cache is too small: " + capacity);
+        }
+        this.maxEntrySize = segmentCapacity / 8;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * Returns heap copy of the cached row or {@code null} on a miss.
+     */
+    @Nullable
+    ByteBuffer get(@NotNull final ByteBuffer key) {
+        final ByteBuffer value = segmentFor(key).get(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Returns invalidation version to pass to {@link #put(ByteBuffer, byte[], long)}
+     * after the row is read from the storage.
+     */
+    long version(@NotNull final ByteBuffer key) {
+        return segmentFor(key).version();
+    }
+
+    /**
+     * Caches the row unless the key has been invalidated since the version was obtained.
+     */
+    void put(@NotNull final ByteBuffer key, @NotNull final byte[] value, final long version) {
+        if (HEADER + key.remaining() + value.length > maxEntrySize) {
+            return;
+        }
+        segmentFor(key).put(key, value, version);
+    }
+
+    void invalidate(@NotNull final ByteBuffer key) {
+        segmentFor(key).invalidate(key);
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(@NotNull final ByteBuffer key) {
+        final int hash = key.hashCode();
+        return segments[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % segments.length];
+    }
+
+    private final class Segment {
+        private final ByteBuffer arena;
+        private final int capacity;
+        private final Map<ByteBuffer, Integer> index = new HashMap<>();
+        private final byte[] scratch;
+
+        private int head;
+        private int tail;
+        private int used;
+        private long version;
+
+        Segment(final int capacity) {
+            this.capacity = capacity;
+            this.arena = ByteBuffer.allocateDirect(capacity);
+            this.scratch = new byte[maxEntrySize];
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized ByteBuffer get(@NotNull final ByteBuffer key) {
+            final Integer offset = index.get(key);
+            if (offset == null) {
+                return null;
+            }
+            arena.put(offset, (byte) (arena.get(offset) | REFERENCED));
+            final int keyLength = arena.getInt(offset + 1);
+            final byte[] value = new byte[arena.getInt(offset + 1 + Integer.BYTES)];
+            arena.duplicate().position(offset + HEADER + keyLength).get(value);
+            return ByteBuffer.wrap(value);
+        }
+
+        synchronized void put(
+                @NotNull final ByteBuffer key,
+                @NotNull final byte[] value,
+                final long expectedVersion) {
+            if (version != expectedVersion) {
+                return;
+            }
+            remove(key);
+            final int size = HEADER + key.remaining() + value.length;
+            reserve(size);
+            arena.put(tail, LIVE);
+            arena.putInt(tail + 1, key.remaining());
+            arena.putInt(tail + 1 + Integer.BYTES, value.length);
+            arena.duplicate().position(tail + HEADER).put(key.duplicate()).put(value);
+            index.put(copyOf(key), tail);
+            advanceTail(size);
+        }
+
+        synchronized void invalidate(@NotNull final ByteBuffer key) {
+            version++;
+            remove(key);
+        }
+
+        private void remove(@NotNull final ByteBuffer key) {
+            final Integer offset = index.remove(key);
+            if (offset != null) {
+                arena.put(offset, (byte) 0);
+            }
+        }
+
+        /**
+         * Makes {@code size} contiguous bytes available at the tail.
+         */
+        private void reserve(final int size) {
+            while (true) {
+                if (used == 0) {
+                    head = 0;
+                    tail = 0;
+                }
+                if (used == 0 || tail > head) {
+                    // Free space is [tail, capacity) and [0, head)
+                    if (capacity - tail >= size) {
+                        return;
+                    }
+                    arena.put(tail, PADDING);
+                    used += capacity - tail;
+                    tail = 0;
+                } else {
+                    // Free space is [tail, head)
+                    if (head - tail >= size) {
+                        return;
+                    }
+                    evictHead();
+                }
+            }
+        }
+
+        private void evictHead() {
+            final byte flags = arena.get(head);
+            if ((flags & PADDING) != 0) {
+                used -= capacity - head;
+                head = 0;
+                return;
+            }
+            final int keyLength = arena.getInt(head + 1);
+            final int size = HEADER + keyLength + arena.getInt(head + 1 + Integer.BYTES);
+            final int offset = head;
+            head += size;
+            used -= size;
+            if ((flags & LIVE) != 0 && (flags & REFERENCED) == 0) {
+                index.remove(arena.duplicate().position(offset + HEADER).limit(offset + HEADER + keyLength));
+                evictions.increment();
+            } else if ((flags & LIVE) != 0) {
+                // Second chance: move to the tail with the reference bit cleared
+                arena.duplicate().position(offset).get(scratch, 0, size);
+                scratch[0] = LIVE;
+                arena.duplicate().position(tail).put(scratch, 0, size);
+                index.put(copyOf(arena.duplicate().position(tail + HEADER).limit(tail + HEADER + keyLength)), tail);
+                advanceTail(size);
+            }
+            if (head == capacity) {
+                head = 0;
+            }
+        }
+
+        private void advanceTail(final int size) {
+            tail += size;
+            used += size;
+            if (tail == capacity) {
+                tail = 0;
+            }
+        }
+    }
+
+    private static ByteBuffer copyOf(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        return copy.flip();
+    }
+}
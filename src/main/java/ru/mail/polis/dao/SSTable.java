@@ -0,0 +1,186 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable memory-mapped {@link Table}.
+ *
+ * <p>File layout: {@code [cells][index][index size]}, where a cell is
+ * {@code [key length][key][timestamp][value length][value]} and tombstones are
+ * stored with negative timestamp and without value. The sparse index keeps
+ * the offset of every {@link #INDEX_STEP}-th cell.
+ */
+final class SSTable implements Table {
+    static final int INDEX_STEP = 16;
+
+    private final ByteBuffer cells;
+    private final ByteBuffer index;
+    private final int indexSize;
+    private final long sizeInBytes;
+
+    SSTable(@NotNull final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            sizeInBytes = channel.size();
+            if (sizeInBytes > Integer.MAX_VALUE) {
+                throw new CustomDaoException("Table is too big: " + file, null);
+            }
+            final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, sizeInBytes);
+            final int indexLimit = mapped.limit() - Integer.BYTES;
+            indexSize = mapped.getInt(indexLimit);
+            final int indexStart = indexLimit - indexSize * Long.BYTES;
+            index = mapped.duplicate().position(indexStart).limit(indexLimit).slice();
+            cells = mapped.duplicate().limit(indexStart).slice();
+        }
+    }
+
+    /**
+     * Writes cells to the file in the format understood by {@link #SSTable(File)}.
+     */
+    static void write(
+            @NotNull final File file,
+            @NotNull final Iterator<Cell> cells) throws IOException {
+        final List<Long> offsets = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            final WritableByteChannel channel = Channels.newChannel(out);
+            long offset = 0;
+            int count = 0;
+            while (cells.hasNext()) {
+                if (count++ % INDEX_STEP == 0) {
+                    offsets.add(offset);
+                }
+                final Cell cell = cells.next();
+                final ByteBuffer key = cell.getKey();
+                final Value value = cell.getValue();
+                offset += Integer.BYTES + key.remaining() + Long.BYTES;
+                out.writeInt(key.remaining());
+                channel.write(key);
+                if (value.isTombstone()) {
+                    out.writeLong(-value.getTimestamp());
+                } else {
+                    final ByteBuffer data = value.getData();
+                    offset += Integer.BYTES + data.remaining();
+                    out.writeLong(value.getTimestamp());
+                    out.writeInt(data.remaining());
+                    channel.write(data);
+                }
+            }
+            for (final long indexOffset : offsets) {
+                out.writeLong(indexOffset);
+            }
+            out.writeInt(offsets.size());
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return new CellIterator(position(from));
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    private int position(@NotNull final ByteBuffer from) {
+        // Find the last indexed cell with key not greater than "from"
+        int left = 0;
+        int right = indexSize - 1;
+        int block = 0;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            final int cmp = keyAt(offsetAt(mid)).compareTo(from);
+            if (cmp > 0) {
+                right = mid - 1;
+            } else {
+                block = mid;
+                left = mid + 1;
+                if (cmp == 0) {
+                    break;
+                }
+            }
+        }
+
+        // Scan the block linearly
+        int offset = indexSize == 0 ? cells.limit() : offsetAt(block);
+        while (offset < cells.limit() && keyAt(offset).compareTo(from) < 0) {
+            offset = nextOffset(offset);
+        }
+        return offset;
+    }
+
+    private int offsetAt(final int i) {
+        return (int) index.getLong(i * Long.BYTES);
+    }
+
+    private ByteBuffer keyAt(final int offset) {
+        final int keyLength = cells.getInt(offset);
+        final int keyStart = offset + Integer.BYTES;
+        return cells.duplicate().position(keyStart).limit(keyStart + keyLength).slice();
+    }
+
+    private int nextOffset(final int offset) {
+        final int timestampOffset = offset + Integer.BYTES + cells.getInt(offset);
+        final int valueOffset = timestampOffset + Long.BYTES;
+        if (cells.getLong(timestampOffset) < 0) {
+            return valueOffset;
+        }
+        return valueOffset + Integer.BYTES + cells.getInt(valueOffset);
+    }
+
+    private Cell cellAt(final int offset) {
+        final ByteBuffer key = keyAt(offset);
+        final int timestampOffset = offset + Integer.BYTES + key.remaining();
+        final long timestamp = cells.getLong(timestampOffset);
+        if (timestamp < 0) {
+            return new Cell(key, Value.tombstone(-timestamp));
+        }
+        final int valueLengthOffset = timestampOffset + Long.BYTES;
+        final int valueStart = valueLengthOffset + Integer.BYTES;
+        final int valueLimit = valueStart + cells.getInt(valueLengthOffset);
+        final ByteBuffer data = cells.duplicate().position(valueStart).limit(valueLimit).slice();
+        return new Cell(key, Value.of(timestamp, data));
+    }
+
+    private final class CellIterator implements Iterator<Cell> {
+        private int offset;
+
+        CellIterator(final int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return offset < cells.limit();
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell cell = cellAt(offset);
+            offset = nextOffset(offset);
+            return cell;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.CompressionType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Storage engine tuning accepted by {@link DAOFactory#create(java.io.File, StorageConfig)}.
+ *
+ * <p>Start from a {@link Profile} and override single options with the {@link Builder}.
+ * The LSM engine only uses the engine choice, the row cache, the memtable size and the tombstone grace.
+ */
+public final class StorageConfig {
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * Named presets for typical workloads.
+     */
+    public enum Profile {
+        /**
+         * Moderate settings close to the engine defaults.
+         */
+        DEFAULT,
+        /**
+         * Random point reads: big block cache, bloom filters and the row cache.
+         */
+        POINT_LOOKUP,
+        /**
+         * Range scans: no bloom filters, bigger memtables and readahead, cheap compression on hot levels.
+         */
+        SCAN_HEAVY,
+        /**
+         * Ingest: big memtables, more background jobs, direct I/O for flushes and compactions.
+         */
+        WRITE_HEAVY
+    }
+
+    private final DAOFactory.Engine engine;
+    private final long rowCacheSize;
+    private final long blockCacheSize;
+    private final int bloomBitsPerKey;
+    private final List<CompressionType> compressionPerLevel;
+    private final long memtableSize;
+    private final int backgroundJobs;
+    private final boolean directIo;
+    private final long readaheadSize;
+    private final long tombstoneGraceMillis;
+
+    private StorageConfig(@NotNull final Builder builder) {
+        this.engine = builder.engine;
+        this.rowCacheSize = builder.rowCacheSize;
+        this.blockCacheSize = builder.blockCacheSize;
+        this.bloomBitsPerKey = builder.bloomBitsPerKey;
+        this.compressionPerLevel = Collections.unmodifiableList(builder.compressionPerLevel);
+        this.memtableSize = builder.memtableSize;
+        this.backgroundJobs = builder.backgroundJobs;
+        this.directIo = builder.directIo;
+        this.readaheadSize = builder.readaheadSize;
+        this.tombstoneGraceMillis = builder.tombstoneGraceMillis;
+    }
+
+    @NotNull
+    public static StorageConfig of(@NotNull final Profile profile) {
+        return builder(profile).build();
+    }
+
+    /**
+     * Creates builder prefilled with the profile settings.
+     */
+    @NotNull
+    public static Builder builder(@NotNull final Profile profile) {
+        final Builder builder = new Builder();
+        switch (profile) {
+            case POINT_LOOKUP:
+                return builder
+                        .rowCacheSize(32 * MB)
+                        .blockCacheSize(64 * MB)
+                        .bloomBitsPerKey(10)
+                        .compressionPerLevel(CompressionType.LZ4_COMPRESSION);
+            case SCAN_HEAVY:
+                return builder
+                        .blockCacheSize(32 * MB)
+                        .bloomBitsPerKey(0)
+                        .memtableSize(32 * MB)
+                        .readaheadSize(2 * MB)
+                        .compressionPerLevel(
+                                CompressionType.NO_COMPRESSION,
+                                CompressionType.NO_COMPRESSION,
+                                CompressionType.LZ4_COMPRESSION,
+                                CompressionType.LZ4_COMPRESSION,
+                                CompressionType.LZ4_COMPRESSION,
+                                CompressionType.ZSTD_COMPRESSION,
+                                CompressionType.ZSTD_COMPRESSION);
+            case WRITE_HEAVY:
+                return builder
+                        .blockCacheSize(16 * MB)
+                        .bloomBitsPerKey(10)
+                        .memtableSize(64 * MB)
+                        .backgroundJobs(4)
+                        .directIo(true)
+                        .compressionPerLevel(
+                                CompressionType.NO_COMPRESSION,
+                                CompressionType.NO_COMPRESSION,
+                                CompressionType.LZ4_COMPRESSION);
+            case DEFAULT:
+            default:
+                return builder;
+        }
+    }
+
+    @NotNull
+    public DAOFactory.Engine getEngine() {
+        return engine;
+    }
+
+    public long getRowCacheSize() {
+        return rowCacheSize;
+    }
+
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    public int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    /**
+     * Returns compression of each level, the last one applies to all the deeper levels.
+     */
+    @NotNull
+    public List<CompressionType> getCompressionPerLevel() {
+        return compressionPerLevel;
+    }
+
+    public long getMemtableSize() {
+        return memtableSize;
+    }
+
+    public int getBackgroundJobs() {
+        return backgroundJobs;
+    }
+
+    public boolean isDirectIo() {
+        return directIo;
+    }
+
+    public long getReadaheadSize() {
+        return readaheadSize;
+    }
+
+    public long getTombstoneGraceMillis() {
+        return tombstoneGraceMillis;
+    }
+
+    /**
+     * Mutable {@link StorageConfig} builder.
+     */
+    public static final class Builder {
+        private DAOFactory.Engine engine = DAOFactory.Engine.ROCKSDB;
+        private long rowCacheSize;
+        private long blockCacheSize = 8 * MB;
+        private int bloomBitsPerKey;
+        private List<CompressionType> compressionPerLevel =
+                Collections.singletonList(CompressionType.SNAPPY_COMPRESSION);
+        private long memtableSize = 16 * MB;
+        private int backgroundJobs = 2;
+        private boolean directIo;
+        private long readaheadSize;
+        private long tombstoneGraceMillis = Long.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        public Builder engine(@NotNull final DAOFactory.Engine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        /**
+         * Sets off-heap row cache size, {@code 0}, the default, disables the cache.
+         * The cache is direct memory on top of the heap, so it is opted in where the point reads pay for it.
+         */
+        public Builder rowCacheSize(final long rowCacheSize) {
+            this.rowCacheSize = rowCacheSize;
+            return this;
+        }
+
+        public Builder blockCacheSize(final long blockCacheSize) {
+            this.blockCacheSize = blockCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets bloom filter density, {@code 0} disables the filters.
+         */
+        public Builder bloomBitsPerKey(final int bloomBitsPerKey) {
+            this.bloomBitsPerKey = bloomBitsPerKey;
+            return this;
+        }
+
+        public Builder compressionPerLevel(@NotNull final CompressionType... compressionPerLevel) {
+            this.compressionPerLevel = Arrays.asList(compressionPerLevel.clone());
+            return this;
+        }
+
+        public Builder memtableSize(final long memtableSize) {
+            this.memtableSize = memtableSize;
+            return this;
+        }
+
+        public Builder backgroundJobs(final int backgroundJobs) {
+            this.backgroundJobs = backgroundJobs;
+            return this;
+        }
+
+        public Builder directIo(final boolean directIo) {
+            this.directIo = directIo;
+            return this;
+        }
+
+        /**
+         * Sets readahead of range scans, {@code 0} leaves it to the engine
+         * which starts prefetching once a scan turns out to be sequential.
+         */
+        public Builder readaheadSize(final long readaheadSize) {
+            this.readaheadSize = readaheadSize;
+            return this;
+        }
+
+        /**
+         * Sets age of a tombstone after which compaction may drop it, {@link Long#MAX_VALUE} by default.
+         * A write older than a dropped tombstone resurrects the key, so it must exceed the time
+         * a late replica write or a handoff may take. RocksDB keeps the tombstones forever.
+         */
+        public Builder tombstoneGraceMillis(final long tombstoneGraceMillis) {
+            this.tombstoneGraceMillis = tombstoneGraceMillis;
+            return this;
+        }
+
+        /**
+         * Validates the settings and builds the config.
+         *
+         * @throws IllegalArgumentException if some setting is out of range
+         */
+        @NotNull
+        public StorageConfig build() {
+            if (rowCacheSize < 0 || blockCacheSize < 0 || bloomBitsPerKey < 0 || readaheadSize < 0) {
+                throw new IllegalArgumentException("Negative cache or filter size");
+            }
+            if (tombstoneGraceMillis < 0) {
+                throw new IllegalArgumentException("Negative tombstone grace");
+            }
+            if (memtableSize <= 0 || backgroundJobs <= 0) {
+                throw new IllegalArgumentException("Memtable size and background jobs must be positive");
+            }
+            if (compressionPerLevel.isEmpty()) {
+                throw new IllegalArgumentException("No compression levels");
+            }
+            return new StorageConfig(this);
+        }
+    }
+}
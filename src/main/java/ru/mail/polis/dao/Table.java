@@ -0,0 +1,21 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Sorted collection of {@link Cell}s, either in memory or on disk.
+ */
+interface Table {
+
+    /**
+     * Provides cells starting at "from" key (inclusive) in {@link Cell#KEY_ORDER}, a key at most once.
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException;
+
+    long sizeInBytes();
+}
@@ -0,0 +1,86 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable snapshot of the {@link LsmDao} tables.
+ */
+final class TableSet {
+    @NotNull
+    final MemTable mem;
+    @NotNull
+    final WriteAheadLog log;
+    @NotNull
+    final Set<MemTable> flushing;
+    @NotNull
+    final NavigableMap<Integer, Table> ssTables;
+    final int generation;
+
+    private TableSet(
+            @NotNull final MemTable mem,
+            @NotNull final WriteAheadLog log,
+            @NotNull final Set<MemTable> flushing,
+            @NotNull final NavigableMap<Integer, Table> ssTables,
+            final int generation) {
+        this.mem = mem;
+        this.log = log;
+        this.flushing = Collections.unmodifiableSet(flushing);
+        this.ssTables = Collections.unmodifiableNavigableMap(ssTables);
+        this.generation = generation;
+    }
+
+    static TableSet of(
+            @NotNull final WriteAheadLog log,
+            @NotNull final NavigableMap<Integer, Table> ssTables,
+            final int generation) {
+        return new TableSet(new MemTable(), log, new HashSet<>(), new TreeMap<>(ssTables), generation);
+    }
+
+    /**
+     * Replaces the memtable with a fresh one logged to the given log and reserves a generation for its flush.
+     */
+    @NotNull
+    TableSet markAsFlushing(@NotNull final WriteAheadLog newLog) {
+        final Set<MemTable> newFlushing = new HashSet<>(flushing);
+        newFlushing.add(mem);
+        return new TableSet(new MemTable(), newLog, newFlushing, new TreeMap<>(ssTables), generation + 1);
+    }
+
+    @NotNull
+    TableSet moveToFlushed(
+            @NotNull final MemTable flushed,
+            @NotNull final Table table,
+            final int tableGeneration) {
+        final Set<MemTable> newFlushing = new HashSet<>(flushing);
+        newFlushing.remove(flushed);
+        final NavigableMap<Integer, Table> newSsTables = new TreeMap<>(ssTables);
+        newSsTables.put(tableGeneration, table);
+        return new TableSet(mem, log, newFlushing, newSsTables, generation);
+    }
+
+    /**
+     * Reserves a generation for a compacted table.
+     */
+    @NotNull
+    TableSet startCompaction() {
+        return new TableSet(mem, log, new HashSet<>(flushing), new TreeMap<>(ssTables), generation + 1);
+    }
+
+    @NotNull
+    TableSet replaceCompacted(
+            @NotNull final Collection<Integer> compacted,
+            @NotNull final Table table,
+            final int tableGeneration) {
+        final NavigableMap<Integer, Table> newSsTables = new TreeMap<>(ssTables);
+        newSsTables.keySet().removeAll(compacted);
+        newSsTables.put(tableGeneration, table);
+        return new TableSet(mem, log, new HashSet<>(flushing), newSsTables, generation);
+    }
+}
@@ -0,0 +1,93 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Versioned value envelope: either data or a tombstone with the timestamp of the write.
+ *
+ * <p>Encoded form is {@code [timestamp][data]}, tombstones store negated timestamp and no data.
+ * Decoding slices the data out of the encoded buffer without copying it.
+ */
+public final class Value implements Comparable<Value> {
+    private final long timestamp;
+    @Nullable
+    private final ByteBuffer data;
+
+    private Value(final long timestamp, @Nullable final ByteBuffer data) {
+        assert timestamp > 0;
+        this.timestamp = timestamp;
+        this.data = data;
+    }
+
+    public static Value of(final long timestamp, @NotNull final ByteBuffer data) {
+        return new Value(timestamp, data);
+    }
+
+    public static Value tombstone(final long timestamp) {
+        return new Value(timestamp, null);
+    }
+
+    /**
+     * Decodes envelope written by {@link #encode()}.
+     */
+    @NotNull
+    public static Value decode(@NotNull final ByteBuffer encoded) {
+        final long timestamp = encoded.getLong(encoded.position());
+        if (timestamp < 0) {
+            return tombstone(-timestamp);
+        }
+        final ByteBuffer payload = encoded.duplicate();
+        payload.position(payload.position() + Long.BYTES);
+        return of(timestamp, payload.slice());
+    }
+
+    /**
+     * Encodes envelope copying the data once.
+     */
+    @NotNull
+    public byte[] encode() {
+        if (data == null) {
+            return ByteBuffer.allocate(Long.BYTES).putLong(-timestamp).array();
+        }
+        return ByteBuffer.allocate(Long.BYTES + data.remaining())
+                .putLong(timestamp)
+                .put(data.duplicate())
+                .array();
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isTombstone() {
+        return data == null;
+    }
+
+    /**
+     * Returns read-only view of the data.
+     *
+     * @throws IllegalStateException if this is a tombstone
+     */
+    @NotNull
+    public ByteBuffer getData() {
+        if (data == null) {
+            throw new IllegalStateException("Tombstone has no data");
+        }
+        return data.asReadOnlyBuffer();
+    }
+
+    int sizeInBytes() {
+        return Long.BYTES + (data == null ? 0 : data.remaining());
+    }
+
+    /**
+     * Orders values from the oldest to the freshest.
+     */
+    @Override
+    public int compareTo(@NotNull final Value other) {
+        return Long.compare(timestamp, other.timestamp);
+    }
+}
@@ -0,0 +1,62 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Freshness-preserving encoding of {@link Value}s for bytewise (unsigned) comparisons.
+ *
+ * <p>Encoded form is {@code [timestamp][kind][data]}, so of two versions of a key the fresher one
+ * is bytewise greater and a merge keeping the greatest operand keeps the freshest version without
+ * reading the stored one. At the same timestamp data wins over a tombstone.
+ * The codec is stateless and thread-safe.
+ */
+final class ValueCodec {
+    static final int DATA_OFFSET = Long.BYTES + 1;
+
+    private static final byte TOMBSTONE = 0;
+    private static final byte DATA = 1;
+
+    private ValueCodec() {
+    }
+
+    /**
+     * Encodes value to a fresh array with a single copy of the data.
+     */
+    @NotNull
+    static byte[] encode(@NotNull final Value value) {
+        if (value.isTombstone()) {
+            return ByteBuffer.allocate(DATA_OFFSET)
+                    .putLong(value.getTimestamp())
+                    .put(TOMBSTONE)
+                    .array();
+        }
+        final ByteBuffer data = value.getData();
+        return ByteBuffer.allocate(DATA_OFFSET + data.remaining())
+                .putLong(value.getTimestamp())
+                .put(DATA)
+                .put(data)
+                .array();
+    }
+
+    /**
+     * Decodes value slicing the data out of the array without copying it.
+     */
+    @NotNull
+    static Value decode(@NotNull final byte[] encoded) {
+        final long timestamp = timestampOf(encoded);
+        if (isTombstone(encoded)) {
+            return Value.tombstone(timestamp);
+        }
+        return Value.of(timestamp, ByteBuffer.wrap(encoded, DATA_OFFSET, encoded.length - DATA_OFFSET).slice());
+    }
+
+    static boolean isTombstone(@NotNull final byte[] encoded) {
+        return encoded[Long.BYTES] == TOMBSTONE;
+    }
+
+    static long timestampOf(@NotNull final byte[] encoded) {
+        return ByteBuffer.wrap(encoded).getLong();
+    }
+}
@@ -0,0 +1,128 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the writes to a {@link MemTable}, so that the writes not flushed yet survive a crash
+ * of the process. Appends are not forced to the disk one by one, that is left to the OS.
+ *
+ * <p>File layout: a sequence of entries {@code [cells size][crc32 of cells][cells]} with cells laid out
+ * as in {@link SSTable}. An entry holds a single write or a whole batch and is appended with a single write,
+ * replay stops at the first torn or corrupted entry. The file is created by the first append,
+ * so a memtable without writes leaves no log behind.
+ */
+final class WriteAheadLog {
+    private static final int HEADER = Integer.BYTES * 2;
+
+    private final File file;
+    @Nullable
+    private FileChannel channel;
+
+    WriteAheadLog(@NotNull final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Appends the cells as a single entry.
+     */
+    void append(@NotNull final List<Cell> cells) throws IOException {
+        int size = 0;
+        for (final Cell cell : cells) {
+            size += sizeOf(cell);
+        }
+        final ByteBuffer entry = ByteBuffer.allocate(HEADER + size);
+        entry.position(HEADER);
+        for (final Cell cell : cells) {
+            final ByteBuffer key = cell.getKey();
+            final Value value = cell.getValue();
+            entry.putInt(key.remaining()).put(key);
+            if (value.isTombstone()) {
+                entry.putLong(-value.getTimestamp());
+            } else {
+                final ByteBuffer data = value.getData();
+                entry.putLong(value.getTimestamp()).putInt(data.remaining()).put(data);
+            }
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(entry.array(), HEADER, size);
+        entry.putInt(0, size).putInt(Integer.BYTES, (int) crc.getValue()).flip();
+        synchronized (this) {
+            if (channel == null) {
+                channel = FileChannel.open(
+                        file.toPath(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            while (entry.hasRemaining()) {
+                channel.write(entry);
+            }
+        }
+    }
+
+    /**
+     * Closes and removes the log once its memtable is flushed.
+     */
+    synchronized void delete() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Applies the complete entries of the log to the memtable.
+     */
+    static void replay(
+            @NotNull final File file,
+            @NotNull final MemTable mem) throws IOException {
+        final ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        while (log.remaining() >= HEADER) {
+            final int size = log.getInt();
+            final int checksum = log.getInt();
+            if (size < 0 || size > log.remaining()) {
+                return;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(log.array(), log.position(), size);
+            if ((int) crc.getValue() != checksum) {
+                return;
+            }
+            final ByteBuffer cells = log.slice().limit(size);
+            log.position(log.position() + size);
+            while (cells.hasRemaining()) {
+                final ByteBuffer key = slice(cells, cells.getInt());
+                final long timestamp = cells.getLong();
+                if (timestamp < 0) {
+                    mem.remove(key, -timestamp);
+                } else {
+                    mem.upsert(key, slice(cells, cells.getInt()), timestamp);
+                }
+            }
+        }
+    }
+
+    private static int sizeOf(@NotNull final Cell cell) {
+        final int size = Integer.BYTES + cell.getKey().remaining() + Long.BYTES;
+        return cell.getValue().isTombstone() ? size : size + Integer.BYTES + cell.getValue().getData().remaining();
+    }
+
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int length) {
+        final ByteBuffer result = buffer.slice().limit(length);
+        buffer.position(buffer.position() + length);
+        return result;
+    }
+}
@@ -23,19 +23,41 @@ package ru.mail.polis.service;
  * <ul>
  * <li>{@code GET /v0/status} --
  * returns {@code 200} or {@code 503}</li>
+ * <li>{@code GET /v0/metrics} --
+ * returns {@code 200} with the node counters, gauges and latency percentiles
+ * of the endpoints, storage and neighbours as {@code <name> <value>} lines</li>
  * <li>{@code GET /v0/entity?id=<ID>} --
  * get data by {@code ID}. Returns {@code 200} and data if found, {@code 404} if not found.</li>
  * <li>{@code GET /v0/entities?start=<ID>[&end=<ID>]} --
  * get range of data between {@code from} (inclusive) and optional {@code to} (exclusive).
- * Returns {@code 200} and HTTP chunked response with {@code <key>\n<value>} chunks.</li>
+ * Returns {@code 200} and HTTP chunked response with {@code <key>\n<value>} chunks.
+ * The keys of the whole cluster are merged, the freshest version of a key wins.</li>
  * <li>{@code PUT /v0/entity?id=<ID>} --
  * upsert (create or replace) data by {@code ID}. Returns {@code 201}.</li>
  * <li>{@code DELETE /v0/entity?id=<ID>} --
  * remove data by {@code ID}. Returns {@code 202}.</li>
+ * <li>{@code GET /v0/entities/batch?id=<ID>[&id=<ID>...]} --
+ * get data by many {@code ID}s at once. Returns {@code 200} and HTTP chunked response
+ * with {@code <key>\n<value>} chunks for the found keys in request order.</li>
+ * <li>{@code PUT /v0/entities/batch} --
+ * apply a batch of upserts and removals encoded as
+ * {@code [key length][key][value length][value]} records (value length {@code -1} for removal).
+ * Returns {@code 201}.</li>
+ * <li>{@code GET /v0/topology[?id=<ID>[&replicas=<ack>/<from>]]} --
+ * returns {@code 200} with the cluster topology and its epoch or with the replicas of {@code ID}.</li>
+ * <li>{@code PUT /v0/topology} --
+ * change the cluster membership to the nodes listed one per line, handing the data off
+ * to the new owners. Returns {@code 200} once the change is committed on every node.</li>
  * </ul>
  *
  * <p>{@code ID} is a non empty char sequence.
  *
+ * <p>Requests to {@code /v0/entity} accept optional {@code &replicas=<ack>/<from>} parameter:
+ * the data is sent to {@code from} replicas and the response is returned after {@code ack}
+ * of them answer, a quorum of the cluster by default. Returns {@code 400} for a wrong
+ * replication factor and {@code 504} if not enough replicas answer. A request carrying
+ * {@code X-Topology-Epoch} header gets {@code 421} from a node which is not a replica of the key.
+ *
  * <p>In all the cases the storage may return:
  * <ul>
  * <li>{@code 4xx} for malformed requests</li>
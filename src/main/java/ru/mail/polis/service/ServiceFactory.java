@@ -18,11 +18,14 @@ package ru.mail.polis.service;
 
 import org.jetbrains.annotations.NotNull;
 import ru.mail.polis.dao.DAO;
-import ru.mail.polis.service.vovasq.BasicTopology;
+import ru.mail.polis.service.vovasq.ConsistentHashTopology;
 import ru.mail.polis.service.vovasq.NodeService;
+import ru.mail.polis.service.vovasq.RendezvousTopology;
 import ru.mail.polis.service.vovasq.Topology;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -32,6 +35,9 @@ import java.util.Set;
  */
 public final class ServiceFactory {
     private static final long MAX_HEAP = 256 * 1024 * 1024;
+    private static final int VIRTUAL_NODES = Integer.getInteger("topology.vnodes", 128);
+    private static final String TOPOLOGY = System.getProperty("topology", "ring");
+    private static final String WEIGHTS = System.getProperty("topology.weights", "");
 
     private ServiceFactory() {
         // Not supposed to be instantiated
@@ -57,10 +63,44 @@ public final class ServiceFactory {
         if (port <= 0 || 65536 <= port) {
             throw new IllegalArgumentException("Port out of range");
         }
-        final Topology<String> nodes = new BasicTopology(topology, "http://localhost:" + port);
+        final String me = "http://localhost:" + port;
+        final Topology<String> nodes = "rendezvous".equals(TOPOLOGY)
+                ? new RendezvousTopology(weights(WEIGHTS, topology), me)
+                : new ConsistentHashTopology(topology, me, VIRTUAL_NODES);
         return new NodeService(port, dao,
                 3,
                 4,
                 nodes);
     }
+
+    /**
+     * Parses {@code topology.weights} property {@code <node>=<weight>[,<node>=<weight>...]},
+     * the nodes not listed get weight {@code 1}.
+     *
+     * @throws IllegalArgumentException if an entry is malformed or names a node out of the topology
+     */
+    @NotNull
+    static Map<String, Double> weights(
+            @NotNull final String property,
+            @NotNull final Set<String> topology) {
+        final Map<String, Double> weights = new HashMap<>();
+        for (final String node : topology) {
+            weights.put(node, 1.0);
+        }
+        for (final String entry : property.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            final int separator = entry.lastIndexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Malformed topology.weights entry: " + entry);
+            }
+            final String node = entry.substring(0, separator).trim();
+            if (!topology.contains(node)) {
+                throw new IllegalArgumentException("topology.weights names " + node + " out of topology " + topology);
+            }
+            weights.put(node, Double.parseDouble(entry.substring(separator + 1)));
+        }
+        return weights;
+    }
 }
@@ -0,0 +1,209 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Admission control of the work handed to the workers, so that under overload a part of the requests
+ * fails fast instead of all of them waiting till they time out.
+ *
+ * <p>Each {@link Lane} bounds the number of its tasks waiting for a worker, a task over the bound is shed
+ * at once. The time a task may wait is limited CoDel style: normally by the lane interval, but once the lane
+ * has not been empty for a whole interval, which means a standing queue rather than a burst, by the much
+ * shorter target. A task waited too long is shed when a worker picks it up, so a worker never spends time
+ * on a request whose client has likely given up.
+ */
+final class AdmissionControl {
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(Long.getLong("admission.interval", 100));
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(Long.getLong("admission.target", 5));
+
+    /**
+     * Class of the work, each class has its own bound and deadlines.
+     */
+    enum Lane {
+        // Requests coordinated by the node and their local parts, their clients are waiting
+        CLIENT(1024, INTERVAL, TARGET),
+        // Requests of the other coordinators, a shed one is hedged to another replica
+        REPLICA(1024, INTERVAL, TARGET),
+        // Handoff batches, big and rate limited by the sender, they tolerate waiting
+        HANDOFF(16, 10 * INTERVAL, INTERVAL);
+
+        private final int capacity;
+        private final long interval;
+        private final long target;
+
+        Lane(final int capacity, final long interval, final long target) {
+            this.capacity = capacity;
+            this.interval = interval;
+            this.target = target;
+        }
+    }
+
+    private final Executor workers;
+    private final LongSupplier clock;
+    private final Map<Lane, State> lanes = new EnumMap<>(Lane.class);
+    private final Metrics.Timer wait;
+
+    /**
+     * Creates admission control in front of the given workers.
+     *
+     * @param clock nanoseconds as {@link System#nanoTime()}
+     */
+    AdmissionControl(
+            @NotNull final Executor workers,
+            @NotNull final LongSupplier clock,
+            @NotNull final Metrics metrics) {
+        this.workers = workers;
+        this.clock = clock;
+        this.wait = metrics.timer("workers.wait");
+        for (final Lane lane : Lane.values()) {
+            final State state = new State(lane, clock.getAsLong(), metrics);
+            lanes.put(lane, state);
+            final String name = "admission." + lane.name().toLowerCase();
+            metrics.gauge(name + ".queue", state.queued::get);
+            metrics.gauge(name + ".overloaded", () -> isOverloaded(lane) ? 1 : 0);
+        }
+        metrics.gauge("workers.queue", this::getQueued);
+    }
+
+    /**
+     * Runs the task on a worker or, if the lane is overloaded, calls {@code shed} instead.
+     * {@code shed} runs either on the caller thread or on a worker and should just answer the request.
+     */
+    void execute(
+            @NotNull final Lane lane,
+            @NotNull final Runnable task,
+            @NotNull final Runnable shed) {
+        final State state = lanes.get(lane);
+        final long submitted = clock.getAsLong();
+        if (!state.enqueue(submitted)) {
+            state.shed.increment();
+            shed.run();
+            return;
+        }
+        workers.execute(() -> {
+            final long started = clock.getAsLong();
+            wait.record(started - submitted);
+            if (state.dequeue(submitted, started)) {
+                task.run();
+            } else {
+                state.shed.increment();
+                shed.run();
+            }
+        });
+    }
+
+    /**
+     * Runs the task on a worker.
+     *
+     * @return result of the task or {@link OverloadedException} failure if the task is shed
+     */
+    @NotNull
+    <T> CompletableFuture<T> supply(
+            @NotNull final Lane lane,
+            @NotNull final Supplier<T> task) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        execute(lane, () -> {
+            try {
+                result.complete(task.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }, () -> result.completeExceptionally(new OverloadedException(lane)));
+        return result;
+    }
+
+    /**
+     * Tells whether the lane has a standing queue, so its tasks are held to the short target.
+     */
+    boolean isOverloaded(@NotNull final Lane lane) {
+        return lanes.get(lane).isOverloaded(clock.getAsLong());
+    }
+
+    long getQueued() {
+        long queued = 0;
+        for (final State state : lanes.values()) {
+            queued += state.queued.get();
+        }
+        return queued;
+    }
+
+    long getShed(@NotNull final Lane lane) {
+        return lanes.get(lane).shed.sum();
+    }
+
+    /**
+     * Failure of a task shed by the admission control.
+     */
+    static final class OverloadedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        OverloadedException(@NotNull final Lane lane) {
+            this(lane.toString());
+        }
+
+        /**
+         * Creates the failure of a task shed by the given node or lane.
+         */
+        OverloadedException(@NotNull final String source) {
+            // Thrown a lot exactly when the node has no time to spare, so no stack trace
+            super("Overloaded " + source, null, false, false);
+        }
+    }
+
+    private static final class State {
+        private final Lane lane;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final LongAdder shed;
+        // When the lane was empty the last time, approximate as it is updated without a lock
+        private volatile long lastEmpty;
+
+        State(
+                @NotNull final Lane lane,
+                final long now,
+                @NotNull final Metrics metrics) {
+            this.lane = lane;
+            this.lastEmpty = now;
+            this.shed = metrics.counter("admission." + lane.name().toLowerCase() + ".shed");
+        }
+
+        boolean enqueue(final long now) {
+            while (true) {
+                final int current = queued.get();
+                if (current >= lane.capacity) {
+                    return false;
+                }
+                if (queued.compareAndSet(current, current + 1)) {
+                    if (current == 0) {
+                        lastEmpty = now;
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Takes the task off the lane and decides whether it is still worth running.
+         */
+        boolean dequeue(final long submitted, final long now) {
+            final long limit = isOverloaded(now) ? lane.target : lane.interval;
+            if (queued.decrementAndGet() == 0) {
+                lastEmpty = now;
+            }
+            return now - submitted <= limit;
+        }
+
+        boolean isOverloaded(final long now) {
+            return queued.get() > 0 && now - lastEmpty > lane.interval;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.CloseableIterator;
+
+/**
+ * Iterator fed asynchronously, e.g. by the network.
+ * {@link #hasNext()} blocks till the next element arrives, unless {@link #isReady()} tells it won't.
+ */
+interface AsyncIterator<E> extends CloseableIterator<E> {
+    /**
+     * Tells whether {@link #hasNext()} answers without blocking.
+     */
+    boolean isReady();
+
+    /**
+     * Runs the callback once the iterator is ready, at once if it already is.
+     * The callback may run on a thread feeding the iterator.
+     */
+    void whenReady(@NotNull Runnable callback);
+}
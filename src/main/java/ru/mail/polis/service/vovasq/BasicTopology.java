@@ -4,6 +4,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 public class BasicTopology implements Topology<String> {
@@ -17,7 +18,7 @@ public class BasicTopology implements Topology<String> {
         this.me = me;
         this.nodes = new String[nodes.size()];
         nodes.toArray(this.nodes);
-        Arrays.sort(nodes.toArray());
+        Arrays.sort(this.nodes);
     }
 
     @Override
@@ -28,9 +29,32 @@ public class BasicTopology implements Topology<String> {
     @NotNull
     @Override
     public String primaryFor(@NotNull ByteBuffer key) {
+        return nodes[primaryIndex(key)];
+    }
+
+    @NotNull
+    @Override
+    public List<String> replicasFor(@NotNull final ByteBuffer key, final int count) {
+        final String[] replicas = new String[count];
+        replicasFor(key, replicas);
+        return Arrays.asList(replicas);
+    }
+
+    @Override
+    public int replicasFor(@NotNull final ByteBuffer key, @NotNull final String[] replicas) {
+        if (replicas.length > nodes.length) {
+            throw new IllegalArgumentException("Not enough nodes: " + replicas.length);
+        }
+        final int primary = primaryIndex(key);
+        for (int i = 0; i < replicas.length; i++) {
+            replicas[i] = nodes[(primary + i) % nodes.length];
+        }
+        return replicas.length;
+    }
+
+    private int primaryIndex(@NotNull final ByteBuffer key) {
         final int hash = key.hashCode();
-        final int node = (hash & Integer.MAX_VALUE) % nodes.length;
-        return nodes[node];
+        return (hash & Integer.MAX_VALUE) % nodes.length;
     }
 
     @NotNull
@@ -38,4 +62,10 @@ public class BasicTopology implements Topology<String> {
     public Set<String> all() {
         return Set.of(nodes);
     }
+
+    @NotNull
+    @Override
+    public Topology<String> withNodes(@NotNull final Set<String> nodes) {
+        return new BasicTopology(nodes, me);
+    }
 }
@@ -0,0 +1,120 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.Mutation;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary body format of {@code /v0/entities/batch} requests.
+ *
+ * <p>Mutations are encoded as {@code [key length][key][value length][value]}
+ * with 32-bit big-endian lengths, value length {@code -1} marks a removal.
+ * Records found by a proxied batch GET use the same layout, their values are encoded {@link ru.mail.polis.dao.Value}s
+ * with tombstones included, keys the replica has never seen are left out.
+ */
+final class BatchFormat {
+    private static final int REMOVE = -1;
+
+    private BatchFormat() {
+    }
+
+    /**
+     * Decodes mutations without copying keys and values out of the body.
+     *
+     * @throws IllegalArgumentException if the body is malformed or has an empty key
+     */
+    @NotNull
+    static List<Mutation> decodeMutations(@NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<Mutation> mutations = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                final ByteBuffer key = slice(buffer, buffer.getInt());
+                if (!key.hasRemaining()) {
+                    throw new IllegalArgumentException("Empty key");
+                }
+                final int valueLength = buffer.getInt();
+                if (valueLength == REMOVE) {
+                    mutations.add(Mutation.remove(key));
+                } else {
+                    mutations.add(Mutation.upsert(key, slice(buffer, valueLength)));
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed batch", e);
+        }
+        return mutations;
+    }
+
+    @NotNull
+    static byte[] encodeMutations(@NotNull final List<Mutation> mutations) {
+        int size = 0;
+        for (final Mutation mutation : mutations) {
+            size += Integer.BYTES * 2 + mutation.getKey().remaining();
+            if (!mutation.isRemove()) {
+                size += mutation.getValue().remaining();
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final Mutation mutation : mutations) {
+            final ByteBuffer key = mutation.getKey();
+            buffer.putInt(key.remaining()).put(key);
+            if (mutation.isRemove()) {
+                buffer.putInt(REMOVE);
+            } else {
+                final ByteBuffer value = mutation.getValue();
+                buffer.putInt(value.remaining()).put(value);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes records without copying keys and values out of the body.
+     *
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static List<Record> decodeRecords(@NotNull final byte[] body) {
+        final List<Record> records = new ArrayList<>();
+        for (final Mutation mutation : decodeMutations(body)) {
+            if (mutation.isRemove()) {
+                throw new IllegalArgumentException("Record without value");
+            }
+            records.add(Record.of(mutation.getKey(), mutation.getValue()));
+        }
+        return records;
+    }
+
+    @NotNull
+    static byte[] encodeRecords(@NotNull final List<Record> records) {
+        int size = 0;
+        for (final Record record : records) {
+            size += Integer.BYTES * 2 + record.getKey().remaining() + record.getValue().remaining();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final Record record : records) {
+            final ByteBuffer key = record.getKey();
+            final ByteBuffer value = record.getValue();
+            buffer.putInt(key.remaining()).put(key);
+            buffer.putInt(value.remaining()).put(value);
+        }
+        return buffer.array();
+    }
+
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad length " + length);
+        }
+        final ByteBuffer result = buffer.slice().limit(length);
+        buffer.position(buffer.position() + length);
+        return result;
+    }
+}
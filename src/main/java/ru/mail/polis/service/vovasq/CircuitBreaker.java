@@ -0,0 +1,148 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker in front of a neighbour node with a phi-accrual failure detector.
+ *
+ * <p>The detector learns the heartbeat inter-arrival times and computes suspicion
+ * {@code phi = -log10(P(no heartbeat for that long))} assuming exponentially distributed
+ * intervals. The breaker opens when the suspicion exceeds the threshold or after a few
+ * consecutive failed requests, so the requests to a dead node fail at once instead of
+ * waiting for a timeout. After the cool-down a single probe request is let through,
+ * its success or the next heartbeat closes the breaker.
+ */
+final class CircuitBreaker {
+    private static final double LOG10_E = Math.log10(Math.E);
+    private static final int WINDOW = 100;
+    // An outage must not teach the detector that long silence is normal
+    private static final int MAX_INTERVAL_FACTOR = 10;
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final LongSupplier clock;
+    private final long maxIntervalNanos;
+    private final double phiThreshold;
+    private final int failureThreshold;
+    private final long coolDownNanos;
+    // Heartbeat inter-arrival times ring
+    private final long[] intervals = new long[WINDOW];
+    private int intervalCount;
+    private long intervalSum;
+    private long lastHeartbeat;
+    private long lastAlive;
+    private int failures;
+    private State state = State.CLOSED;
+    private long openedAt;
+
+    /**
+     * Creates closed breaker expecting heartbeats every {@code expectedIntervalNanos}.
+     */
+    CircuitBreaker(
+            @NotNull final LongSupplier clock,
+            final long expectedIntervalNanos,
+            final double phiThreshold,
+            final int failureThreshold,
+            final long coolDownNanos) {
+        this.clock = clock;
+        this.maxIntervalNanos = expectedIntervalNanos * MAX_INTERVAL_FACTOR;
+        this.phiThreshold = phiThreshold;
+        this.failureThreshold = failureThreshold;
+        this.coolDownNanos = coolDownNanos;
+        // Seed the window so a node that never answered is suspected the usual way
+        intervals[0] = expectedIntervalNanos;
+        intervalCount = 1;
+        intervalSum = expectedIntervalNanos;
+        lastHeartbeat = clock.getAsLong();
+        lastAlive = lastHeartbeat;
+    }
+
+    /**
+     * Decides whether a request may be sent to the node now.
+     */
+    synchronized boolean allowRequest() {
+        final long now = clock.getAsLong();
+        switch (state) {
+            case CLOSED:
+                if (phi(now) > phiThreshold) {
+                    open(now);
+                    return false;
+                }
+                return true;
+            case OPEN:
+                if (now - openedAt < coolDownNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return true;
+            case HALF_OPEN:
+            default:
+                // The probe is in flight
+                return false;
+        }
+    }
+
+    /**
+     * Records a heartbeat answered by the node.
+     */
+    synchronized void onHeartbeat() {
+        final long now = clock.getAsLong();
+        final long interval = Math.min(now - lastHeartbeat, maxIntervalNanos);
+        final int slot = intervalCount % WINDOW;
+        if (intervalCount >= WINDOW) {
+            intervalSum -= intervals[slot];
+        }
+        intervals[slot] = interval;
+        intervalSum += interval;
+        intervalCount++;
+        lastHeartbeat = now;
+        alive(now);
+    }
+
+    /**
+     * Records a successful request, it proves the node alive but says nothing about heartbeat intervals.
+     */
+    synchronized void onSuccess() {
+        alive(clock.getAsLong());
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            open(clock.getAsLong());
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns suspicion level that the node is down.
+     */
+    synchronized double phi() {
+        return phi(clock.getAsLong());
+    }
+
+    private double phi(final long now) {
+        final double mean = (double) intervalSum / Math.min(intervalCount, WINDOW);
+        return (now - lastAlive) / mean * LOG10_E;
+    }
+
+    private void alive(final long now) {
+        lastAlive = now;
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    private void open(final long now) {
+        state = State.OPEN;
+        openedAt = now;
+    }
+}
@@ -0,0 +1,240 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Client routing every request straight to a replica of the key, which saves the hop
+ * through a node that doesn't store the key.
+ *
+ * <p>The client caches the cluster topology fetched from {@code /v0/topology} and places
+ * the keys by itself. A node answering {@code 421} has a newer topology, the client
+ * refreshes its copy from a node that has a newer one too and retries. An unreachable
+ * owner is skipped for the next replica.
+ */
+public class ClusterClient {
+    private static final Duration TIMEOUT = Duration.ofSeconds(1);
+    private static final int MISDIRECTED = 421;
+    private static final int ATTEMPTS = 3;
+
+    @NotNull
+    private final String seed;
+    private final HttpClient client;
+    private volatile Routing routing;
+
+    /**
+     * Creates client fetching the topology from the given node.
+     *
+     * @param seed any node of the cluster {@code http://<host>:<port>}
+     * @throws IOException if the node can't give the topology
+     */
+    public ClusterClient(@NotNull final String seed) throws IOException {
+        this.seed = seed;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(TIMEOUT)
+                .build();
+        refresh(-1);
+    }
+
+    /**
+     * Returns the value or {@code null} if the key is absent, the cluster default quorum is used.
+     */
+    @Nullable
+    public byte[] get(@NotNull final String id) throws IOException {
+        return get(id, null);
+    }
+
+    /**
+     * Returns the value or {@code null} if the key is absent.
+     *
+     * @param replicas {@code ack/from} as accepted by {@code /v0/entity}, {@code null} for the default quorum
+     */
+    @Nullable
+    public byte[] get(
+            @NotNull final String id,
+            @Nullable final String replicas) throws IOException {
+        final HttpResponse<byte[]> response = send(id, replicas, HttpRequest.Builder::GET);
+        switch (response.statusCode()) {
+            case 200:
+                return response.body();
+            case 404:
+                return null;
+            default:
+                throw new IOException("Get failed with " + response.statusCode());
+        }
+    }
+
+    public void upsert(
+            @NotNull final String id,
+            @NotNull final byte[] value) throws IOException {
+        upsert(id, value, null);
+    }
+
+    public void upsert(
+            @NotNull final String id,
+            @NotNull final byte[] value,
+            @Nullable final String replicas) throws IOException {
+        final HttpResponse<byte[]> response =
+                send(id, replicas, builder -> builder.PUT(HttpRequest.BodyPublishers.ofByteArray(value)));
+        if (response.statusCode() != 201) {
+            throw new IOException("Upsert failed with " + response.statusCode());
+        }
+    }
+
+    public void delete(@NotNull final String id) throws IOException {
+        delete(id, null);
+    }
+
+    public void delete(
+            @NotNull final String id,
+            @Nullable final String replicas) throws IOException {
+        final HttpResponse<byte[]> response = send(id, replicas, HttpRequest.Builder::DELETE);
+        if (response.statusCode() != 202) {
+            throw new IOException("Delete failed with " + response.statusCode());
+        }
+    }
+
+    /**
+     * Returns epoch of the cached topology.
+     */
+    public long getEpoch() {
+        return routing.epoch;
+    }
+
+    /**
+     * Fetches the topology from any node known, a stale answer doesn't replace a newer copy.
+     *
+     * @throws IOException if no node answered
+     */
+    public void refresh() throws IOException {
+        refresh(routing.epoch - 1);
+    }
+
+    /**
+     * Fetches the topology from the first node known to have an epoch above the given one.
+     *
+     * @throws IOException if no node answered with such a topology
+     */
+    private void refresh(final long newerThan) throws IOException {
+        final Set<String> nodes = new LinkedHashSet<>();
+        final Routing current = routing;
+        if (current != null) {
+            nodes.addAll(current.topology.all());
+        }
+        nodes.add(seed);
+        IOException failure = null;
+        for (final String node : nodes) {
+            try {
+                final HttpRequest request = HttpRequest.newBuilder(URI.create(node + "/v0/topology"))
+                        .timeout(TIMEOUT)
+                        .GET()
+                        .build();
+                final HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    failure = new IOException("Topology failed on " + node + ": " + response.statusCode());
+                    continue;
+                }
+                final long epoch = TopologyFormat.epochOf(response.body());
+                if (epoch <= newerThan) {
+                    // The node has not seen the change yet, another one may have
+                    failure = new IOException("Stale topology from " + node + ": " + epoch);
+                    continue;
+                }
+                update(new Routing(TopologyFormat.decode(response.body(), ""), epoch));
+                return;
+            } catch (IOException e) {
+                failure = e;
+            } catch (IllegalArgumentException e) {
+                failure = new IOException("Bad topology from " + node, e);
+            }
+        }
+        throw failure;
+    }
+
+    private synchronized void update(@NotNull final Routing fetched) {
+        if (routing == null || routing.epoch <= fetched.epoch) {
+            routing = fetched;
+        }
+    }
+
+    /**
+     * Sends the request to the owner of the key, falls back to the other replicas
+     * if the owner is unreachable and refreshes the topology if a node is not a replica any more.
+     */
+    @NotNull
+    private HttpResponse<byte[]> send(
+            @NotNull final String id,
+            @Nullable final String replicas,
+            @NotNull final UnaryOperator<HttpRequest.Builder> method) throws IOException {
+        final ByteBuffer key = ByteBuffer.wrap(id.getBytes(UTF_8));
+        // Spaces as %20, a plus sign is not decoded by every server
+        final String uri = "/v0/entity?id=" + URLEncoder.encode(id, UTF_8).replace("+", "%20")
+                + (replicas == null ? "" : "&replicas=" + replicas);
+        IOException failure = new IOException("Misdirected request " + id);
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            final Routing current = routing;
+            final int from = Replicas.parse(replicas, current.topology.all().size()).getFrom();
+            boolean misdirected = false;
+            for (final String node : current.topology.replicasFor(key, from)) {
+                final HttpRequest request = method.apply(HttpRequest.newBuilder(URI.create(node + uri))
+                        .timeout(TIMEOUT)
+                        .header(TopologyFormat.EPOCH_HEADER, Long.toString(current.epoch)))
+                        .build();
+                try {
+                    final HttpResponse<byte[]> response = send(request, HttpResponse.BodyHandlers.ofByteArray());
+                    if (response.statusCode() != MISDIRECTED) {
+                        return response;
+                    }
+                    misdirected = true;
+                    break;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (!misdirected) {
+                throw failure;
+            }
+            refresh(current.epoch);
+        }
+        throw failure;
+    }
+
+    @NotNull
+    private <T> HttpResponse<T> send(
+            @NotNull final HttpRequest request,
+            @NotNull final HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+    }
+
+    private static final class Routing {
+        private final Topology<String> topology;
+        private final long epoch;
+
+        Routing(
+                @NotNull final Topology<String> topology,
+                final long epoch) {
+            this.topology = topology;
+            this.epoch = epoch;
+        }
+    }
+}
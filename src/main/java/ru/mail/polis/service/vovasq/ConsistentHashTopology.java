@@ -0,0 +1,142 @@
+package ru.mail.polis.service.vovasq;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Consistent hash ring with virtual nodes.
+ *
+ * <p>Every node owns {@code virtualNodes} tokens on a 64-bit Murmur3 ring and a key belongs
+ * to the owner of the first token at or after the key hash. Adding or removing a node
+ * remaps only about {@code 1/N} of the keys. Lookup is a binary search over the sorted tokens.
+ */
+public class ConsistentHashTopology implements Topology<String> {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    @NotNull
+    private final String me;
+    @NotNull
+    private final String[] nodes;
+    private final int virtualNodes;
+    private final long[] tokens;
+    private final int[] owners;
+
+    /**
+     * Builds the ring, every node of the cluster gets the same ring for the same set of nodes.
+     *
+     * @param nodes        all the cluster nodes, including this one
+     * @param me           this node
+     * @param virtualNodes tokens per node, more tokens give more even distribution
+     */
+    public ConsistentHashTopology(
+            @NotNull final Set<String> nodes,
+            @NotNull final String me,
+            final int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("No nodes or virtual nodes");
+        }
+        this.me = me;
+        this.virtualNodes = virtualNodes;
+        this.nodes = nodes.toArray(new String[0]);
+        Arrays.sort(this.nodes);
+
+        final long[][] ring = new long[this.nodes.length * virtualNodes][];
+        for (int node = 0; node < this.nodes.length; node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                final long token = HASH.hashString(this.nodes[node] + '#' + i, UTF_8).asLong();
+                ring[node * virtualNodes + i] = new long[]{token, node};
+            }
+        }
+        // Ties are broken by node so that the ring doesn't depend on the input order
+        Arrays.sort(ring, (a, b) -> a[0] == b[0] ? Long.compare(a[1], b[1]) : Long.compare(a[0], b[0]));
+        this.tokens = new long[ring.length];
+        this.owners = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            tokens[i] = ring[i][0];
+            owners[i] = (int) ring[i][1];
+        }
+    }
+
+    @Override
+    public boolean isMe(@NotNull final String node) {
+        return node.equals(me);
+    }
+
+    @NotNull
+    @Override
+    public String primaryFor(@NotNull final ByteBuffer key) {
+        return nodes[owners[tokenFor(key)]];
+    }
+
+    /**
+     * Walks the ring clockwise from the key collecting distinct owners.
+     */
+    @NotNull
+    @Override
+    public List<String> replicasFor(@NotNull final ByteBuffer key, final int count) {
+        final String[] replicas = new String[count];
+        replicasFor(key, replicas);
+        return Arrays.asList(replicas);
+    }
+
+    @Override
+    public int replicasFor(@NotNull final ByteBuffer key, @NotNull final String[] replicas) {
+        if (replicas.length > nodes.length) {
+            throw new IllegalArgumentException("Not enough nodes: " + replicas.length);
+        }
+        int token = tokenFor(key);
+        int found = 0;
+        while (found < replicas.length) {
+            final String owner = nodes[owners[token]];
+            // The replication factor is tiny, a scan beats a set of the taken owners
+            if (!contains(replicas, found, owner)) {
+                replicas[found++] = owner;
+            }
+            token = token + 1 == tokens.length ? 0 : token + 1;
+        }
+        return found;
+    }
+
+    @NotNull
+    @Override
+    public Set<String> all() {
+        return Set.of(nodes);
+    }
+
+    int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    @NotNull
+    @Override
+    public Topology<String> withNodes(@NotNull final Set<String> nodes) {
+        return new ConsistentHashTopology(nodes, me, virtualNodes);
+    }
+
+    private static boolean contains(
+            @NotNull final String[] replicas,
+            final int count,
+            @NotNull final String node) {
+        for (int i = 0; i < count; i++) {
+            if (replicas[i].equals(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int tokenFor(@NotNull final ByteBuffer key) {
+        final long hash = HASH.hashBytes(key.duplicate()).asLong();
+        final int index = Arrays.binarySearch(tokens, hash);
+        final int token = index >= 0 ? index : -index - 1;
+        return token == tokens.length ? 0 : token;
+    }
+}
@@ -0,0 +1,189 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Hedged reads: asks only {@code ack} replicas first and one more replica every time
+ * the answers are later than the p95 latency of the replicas asked, so a single slow
+ * node (a GC pause, a cold disk) doesn't hold the read. A failed replica is replaced at once.
+ * The requests still in flight are cancelled as soon as {@code ack} answers are collected.
+ */
+final class Hedging {
+    private static final long DEFAULT_DELAY = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MIN_DELAY = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toNanos(1);
+
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder won = new LongAdder();
+
+    Hedging(@NotNull final ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Reads from the replicas in the given order.
+     *
+     * @param replicas all the replicas allowed to answer, the first {@code ack} are asked at once
+     * @param send     sends the read to a replica
+     * @return first {@code ack} answers or failure if {@code ack} answers can't be collected
+     */
+    @NotNull
+    <T> CompletableFuture<List<T>> read(
+            @NotNull final List<String> replicas,
+            final int ack,
+            @NotNull final Function<String, CompletableFuture<T>> send) {
+        final List<CompletableFuture<T>> slots = new ArrayList<>(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            slots.add(new CompletableFuture<>());
+        }
+        final CompletableFuture<List<T>> result = Quorum.of(slots, ack);
+        final Read<T> read = new Read<>(replicas, send, slots, result);
+        for (int i = 0; i < ack; i++) {
+            read.launch(false);
+        }
+        if (ack < replicas.size()) {
+            read.hedgeAfter(delay(replicas.subList(0, ack)));
+        }
+        result.whenComplete((values, error) -> read.cancel());
+        return result;
+    }
+
+    long getFired() {
+        return fired.sum();
+    }
+
+    long getWon() {
+        return won.sum();
+    }
+
+    /**
+     * Returns the p95 latency of the slowest replica given, clamped to the sane bounds.
+     */
+    private long delay(@NotNull final List<String> replicas) {
+        long delay = -1;
+        for (final String replica : replicas) {
+            final Latency latency = latencies.get(replica);
+            if (latency != null) {
+                delay = Math.max(delay, latency.p95);
+            }
+        }
+        if (delay < 0) {
+            return DEFAULT_DELAY;
+        }
+        return Math.max(MIN_DELAY, Math.min(MAX_DELAY, delay));
+    }
+
+    private final class Read<T> {
+        private final List<String> replicas;
+        private final Function<String, CompletableFuture<T>> send;
+        private final List<CompletableFuture<T>> slots;
+        private final CompletableFuture<List<T>> result;
+        private final AtomicInteger launched = new AtomicInteger();
+        private final AtomicReferenceArray<CompletableFuture<T>> inFlight;
+        private volatile ScheduledFuture<?> timer;
+
+        Read(
+                @NotNull final List<String> replicas,
+                @NotNull final Function<String, CompletableFuture<T>> send,
+                @NotNull final List<CompletableFuture<T>> slots,
+                @NotNull final CompletableFuture<List<T>> result) {
+            this.replicas = replicas;
+            this.send = send;
+            this.slots = slots;
+            this.result = result;
+            this.inFlight = new AtomicReferenceArray<>(replicas.size());
+        }
+
+        void launch(final boolean hedge) {
+            final int index = launched.getAndIncrement();
+            if (index >= replicas.size()) {
+                return;
+            }
+            final String replica = replicas.get(index);
+            final long start = System.nanoTime();
+            final CompletableFuture<T> request = send.apply(replica);
+            inFlight.set(index, request);
+            request.whenComplete((value, error) -> {
+                if (error == null) {
+                    latencies.computeIfAbsent(replica, key -> new Latency()).record(System.nanoTime() - start);
+                    // Checked before the answer is counted, so a hedge answering in time wins
+                    if (hedge && !result.isDone()) {
+                        won.increment();
+                    }
+                    slots.get(index).complete(value);
+                } else {
+                    slots.get(index).completeExceptionally(error);
+                    if (!result.isDone()) {
+                        launch(false);
+                    }
+                }
+            });
+        }
+
+        void hedgeAfter(final long delay) {
+            timer = scheduler.schedule(() -> {
+                if (result.isDone() || launched.get() >= replicas.size()) {
+                    return;
+                }
+                fired.increment();
+                launch(true);
+                hedgeAfter(delay);
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+
+        void cancel() {
+            final ScheduledFuture<?> scheduled = timer;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            for (int i = 0; i < inFlight.length(); i++) {
+                final CompletableFuture<T> request = inFlight.get(i);
+                if (request != null && !request.isDone()) {
+                    request.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Latency of the recent answers of a replica.
+     */
+    private static final class Latency {
+        private static final int WINDOW = 128;
+        private static final int RECALCULATE = 32;
+
+        private final long[] samples = new long[WINDOW];
+        private int next;
+        private int size;
+        private volatile long p95 = -1;
+
+        synchronized void record(final long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % WINDOW;
+            if (size < WINDOW) {
+                size++;
+            }
+            if (next % RECALCULATE == 0) {
+                final long[] sorted = Arrays.copyOf(samples, size);
+                Arrays.sort(sorted);
+                p95 = sorted[(int) (sorted.length * 0.95)];
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.Iters;
+import ru.mail.polis.dao.Value;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges the versioned records of the nodes sorted by key into the live records,
+ * the freshest version of a key wins and the removed keys are skipped.
+ *
+ * <p>A merge step takes at most one record of every node, so the merge is ready
+ * when all the asynchronous sources are, and a caller checking {@link #isReady()}
+ * is never blocked by a slow node.
+ */
+final class MergedRange implements AsyncIterator<Record> {
+    private final List<CloseableIterator<Record>> sources;
+    private final List<AsyncIterator<Record>> async = new ArrayList<>();
+    private final Iterator<Record> merged;
+    private Record next;
+
+    MergedRange(@NotNull final List<CloseableIterator<Record>> versioned) {
+        this.sources = versioned;
+        for (final CloseableIterator<Record> source : versioned) {
+            if (source instanceof AsyncIterator) {
+                async.add((AsyncIterator<Record>) source);
+            }
+        }
+        this.merged = Iters.merge(versioned, Comparator.naturalOrder(), MergedRange::fresher);
+    }
+
+    @Override
+    public synchronized boolean isReady() {
+        return fetch(false);
+    }
+
+    @Override
+    public void whenReady(@NotNull final Runnable callback) {
+        final AsyncIterator<Record> blocking;
+        synchronized (this) {
+            blocking = fetch(false) ? null : blocking();
+        }
+        if (blocking == null) {
+            callback.run();
+        } else {
+            blocking.whenReady(() -> whenReady(callback));
+        }
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        fetch(true);
+        return next != null;
+    }
+
+    @Override
+    public synchronized Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Record record = next;
+        next = null;
+        return record;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (final CloseableIterator<Record> source : sources) {
+            source.close();
+        }
+        next = null;
+    }
+
+    /**
+     * Finds the next live record.
+     *
+     * @param block whether to wait for the sources not ready
+     * @return {@code false} if a source not ready is needed to go on
+     */
+    private boolean fetch(final boolean block) {
+        while (next == null) {
+            if (!block && blocking() != null) {
+                return false;
+            }
+            if (!merged.hasNext()) {
+                return true;
+            }
+            final Record record = merged.next();
+            final Value value = Value.decode(record.getValue());
+            if (!value.isTombstone()) {
+                next = Record.of(record.getKey(), value.getData());
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private AsyncIterator<Record> blocking() {
+        for (final AsyncIterator<Record> source : async) {
+            if (!source.isReady()) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    private static Record fresher(
+            @NotNull final Record a,
+            @NotNull final Record b) {
+        return timestamp(b) > timestamp(a) ? b : a;
+    }
+
+    private static long timestamp(@NotNull final Record record) {
+        final ByteBuffer value = record.getValue();
+        // Removals are stored with the negated timestamp
+        return Math.abs(value.getLong(value.position()));
+    }
+}
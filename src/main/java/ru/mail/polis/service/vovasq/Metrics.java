@@ -0,0 +1,101 @@
+package ru.mail.polis.service.vovasq;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Node metrics served by {@code /v0/metrics} as {@code <name> <value>} lines sorted by name.
+ *
+ * <p>Latencies go to HdrHistogram {@link Recorder}s, which record wait-free without allocation,
+ * and are rendered as count, percentiles and max in microseconds. Counters are {@link LongAdder}s.
+ * Metrics are created on first use, so keep a reference to the ones used on a hot path.
+ */
+final class Metrics {
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final double[] PERCENTILES = {50, 95, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p95", "p99", "p999"};
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    @NotNull
+    Timer timer(@NotNull final String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    @NotNull
+    LongAdder counter(@NotNull final String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Registers value read at render time.
+     */
+    void gauge(
+            @NotNull final String name,
+            @NotNull final LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    @NotNull
+    String render() {
+        final Map<String, Long> lines = new TreeMap<>();
+        for (final Map.Entry<String, Timer> entry : timers.entrySet()) {
+            entry.getValue().render(entry.getKey(), lines);
+        }
+        for (final Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            lines.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (final Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            lines.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        final StringBuilder text = new StringBuilder();
+        for (final Map.Entry<String, Long> line : lines.entrySet()) {
+            text.append(line.getKey()).append(' ').append(line.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Latency histogram since the node start.
+     */
+    static final class Timer {
+        private final Recorder recorder = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+        // Accumulates the recorder intervals, touched by the readers only
+        private final Histogram total = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+        private Histogram interval;
+
+        /**
+         * Records the time elapsed since {@code startNanos} taken from {@link System#nanoTime()}.
+         */
+        void recordSince(final long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        void record(final long nanos) {
+            recorder.recordValue(Math.max(0, Math.min(HIGHEST_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos))));
+        }
+
+        private synchronized void render(
+                @NotNull final String name,
+                @NotNull final Map<String, Long> lines) {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            lines.put(name + ".count", total.getTotalCount());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                lines.put(name + '.' + PERCENTILE_NAMES[i] + "_us", total.getValueAtPercentile(PERCENTILES[i]));
+            }
+            lines.put(name + ".max_us", total.getMaxValue());
+        }
+    }
+}
@@ -1,73 +1,325 @@
 package ru.mail.polis.service.vovasq;
 
 import com.google.common.base.Charsets;
-import one.nio.http.HttpClient;
-import one.nio.http.HttpException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import one.nio.http.HttpServer;
 import one.nio.http.HttpServerConfig;
 import one.nio.http.HttpSession;
 import one.nio.http.Request;
 import one.nio.http.Response;
-import one.nio.net.ConnectionString;
 import one.nio.net.Socket;
-import one.nio.pool.PoolException;
 import one.nio.server.AcceptorConfig;
 import one.nio.server.RejectedSessionException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.mail.polis.Record;
+import ru.mail.polis.dao.CachingDao;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.Cursor;
 import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Iters;
+import ru.mail.polis.dao.Mutation;
+import ru.mail.polis.dao.Value;
 import ru.mail.polis.service.Service;
+import ru.mail.polis.service.vovasq.AdmissionControl.Lane;
+import ru.mail.polis.util.Clock;
 
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static ru.mail.polis.util.Util.fromByteBufferToByteArray;
 
 public class NodeService extends HttpServer implements Service {
-
+    private static final String BATCH_PATH = "/v0/entities/batch";
+    private static final String TOPOLOGY_PATH = "/v0/topology";
+    private static final String MISDIRECTED = "421 Misdirected Request";
+    private static final int PROXY_THREADS = 4;
+    // Bytes of a remote range stream read ahead of the client
+    private static final int RANGE_PREFETCH = Integer.getInteger("range.prefetch", 256 * 1024);
+    private static final long REBALANCE_RATE = Long.getLong("rebalance.rate", 32 * 1024 * 1024);
+    private static final Duration REBALANCE_TIMEOUT = Duration.ofMinutes(Long.getLong("rebalance.timeout", 360));
+    private static final long HEARTBEAT_INTERVAL =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("heartbeat.interval", 100));
+    private static final int MISSED_HEARTBEATS = 5;
+    private static final double PHI_THRESHOLD = 8;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long COOL_DOWN = TimeUnit.SECONDS.toNanos(1);
+    // The committed membership is stored with the data under the empty key, which no client can address
+    private static final ByteBuffer MEMBERSHIP_KEY = ByteBuffer.allocate(0);
 
     private final DAO dao;
     private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    private final Topology<String> topology;
-    private final Map<String, HttpClient> neighbours;
+    private final HttpClient client;
+    private final ExecutorService proxyExecutor;
+    private final ExecutorService rebalanceExecutor;
+    private final Rebalancer rebalancer;
+    // Heartbeats and hedge timers
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Hedging hedging;
+    // Concurrent reads of a key with the same replication factor share the quorum read
+    private final SingleFlight<ByteBuffer, Replicas, Value> reads = new SingleFlight<>();
+    private final Map<String, Neighbour> neighbours = new ConcurrentHashMap<>();
+    private final Metrics metrics = new Metrics();
+    private final Map<String, Metrics.Timer[]> endpoints = new HashMap<>();
+    private final Metrics.Timer otherEndpoints = metrics.timer("http.other");
+    private final AdmissionControl admission = new AdmissionControl(this::asyncExecute, System::nanoTime, metrics);
+    // Serves all the requests
+    private volatile Topology<String> topology;
+    // Membership being handed off to, it also receives the writes so the handoff doesn't miss them
+    private volatile Topology<String> pending;
+    // Epoch of the committed membership, the same on all its nodes, guarded by this
+    private long epoch;
 
     public NodeService(final int port, final DAO dao,
                        final int minNumOfWorkers,
                        final int maxNumOfWorkers,
                        final Topology<String> topology) throws IOException {
         super(getConfig(port, minNumOfWorkers, maxNumOfWorkers));
-        this.dao = dao;
+        this.dao = new TimedDao(dao, metrics);
         this.topology = topology;
-        neighbours = new HashMap<>();
+        restoreMembership(topology);
+        // The client only runs response callbacks on the executor, nobody waits for a neighbour
+        proxyExecutor = Executors.newFixedThreadPool(
+                PROXY_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("proxy-%d").setDaemon(true).build());
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(proxyExecutor)
+                .build();
+        rebalanceExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("rebalance-%d").setDaemon(true).build());
+        rebalancer = new Rebalancer(this.dao, client, REBALANCE_RATE);
+        scheduler = new ScheduledThreadPoolExecutor(
+                1,
+                new ThreadFactoryBuilder().setNameFormat("scheduler-%d").setDaemon(true).build());
+        // Hedge timers are mostly cancelled, don't keep them queued until they expire
+        scheduler.setRemoveOnCancelPolicy(true);
+        hedging = new Hedging(scheduler);
+        registerMetrics(dao);
+    }
+
+    /**
+     * Serves the membership committed before the restart, if any, instead of the configured one.
+     */
+    private void restoreMembership(@NotNull final Topology<String> configured) throws IOException {
+        final String text;
+        try {
+            text = UTF_8.decode(dao.get(MEMBERSHIP_KEY.duplicate())).toString();
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        final Topology<String> committed = TopologyFormat.decode(text, me(configured));
+        if (!committed.all().equals(configured.all())) {
+            log.warn("Serving the committed membership {} instead of the configured {}",
+                    committed.all(), configured.all());
+        }
+        topology = committed;
+        epoch = TopologyFormat.epochOf(text);
+    }
+
+    @NotNull
+    private static String me(@NotNull final Topology<String> topology) {
         for (final String node : topology.all()) {
+            if (topology.isMe(node)) {
+                return node;
+            }
+        }
+        throw new IllegalArgumentException("This node is not in the topology");
+    }
+
+    /**
+     * Creates the timers of the endpoints beforehand, so that requests only look them up.
+     */
+    private void registerMetrics(@NotNull final DAO storage) {
+        final String[] paths = {
+                "/v0/status", "/v0/metrics", "/v0/entity", "/v0/entities", BATCH_PATH,
+                TOPOLOGY_PATH, Rebalancer.HANDOFF_PATH};
+        final String[] methods = {"GET", "POST", "HEAD", "OPTIONS", "PUT", "DELETE"};
+        for (final String path : paths) {
+            // Indexed by the one-nio method codes starting at 1
+            final Metrics.Timer[] timers = new Metrics.Timer[methods.length + 1];
+            final String name = "http" + path.substring("/v0".length()).replace('/', '.') + '.';
+            for (int i = 0; i < methods.length; i++) {
+                timers[i + 1] = metrics.timer(name + methods[i]);
+            }
+            endpoints.put(path, timers);
+        }
+        metrics.gauge("hedges.fired", hedging::getFired);
+        metrics.gauge("hedges.won", hedging::getWon);
+        metrics.gauge("reads.led", reads::getLed);
+        metrics.gauge("reads.coalesced", reads::getJoined);
+        if (storage instanceof CachingDao) {
+            final CachingDao cached = (CachingDao) storage;
+            metrics.gauge("dao.cache.hits", cached::getCacheHits);
+            metrics.gauge("dao.cache.misses", cached::getCacheMisses);
+            metrics.gauge("dao.cache.evictions", cached::getCacheEvictions);
+        }
+    }
+
+    @NotNull
+    private Metrics.Timer endpointTimer(@NotNull final Request request) {
+        final Metrics.Timer[] timers = endpoints.get(request.getPath());
+        final int method = request.getMethod();
+        if (timers == null || method <= 0 || method >= timers.length) {
+            return otherEndpoints;
+        }
+        return timers[method];
+    }
+
+    /**
+     * Runs the task on a worker unless the node is overloaded, then answers {@code 503} at once.
+     */
+    private void execute(@NotNull final Lane lane,
+                         @NotNull final HttpSession session,
+                         @NotNull final Runnable task) {
+        admission.execute(lane, task, () -> send(session, new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY)));
+    }
+
+    /**
+     * Answers {@code 503} if the request failed because this node or a node of a batch fan-out was overloaded.
+     */
+    @NotNull
+    private static Response failure(@NotNull final Throwable error, @NotNull final String status) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+        return new Response(
+                cause instanceof AdmissionControl.OverloadedException ? Response.SERVICE_UNAVAILABLE : status,
+                Response.EMPTY);
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+        scheduler.scheduleWithFixedDelay(
+                this::heartbeat,
+                HEARTBEAT_INTERVAL,
+                HEARTBEAT_INTERVAL,
+                TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        scheduler.shutdownNow();
+        proxyExecutor.shutdownNow();
+        rebalanceExecutor.shutdownNow();
+    }
+
+    /**
+     * Pings the other nodes, the answers drive their failure detectors.
+     */
+    private void heartbeat() {
+        final Set<String> nodes = new HashSet<>(topology.all());
+        final Topology<String> next = pending;
+        if (next != null) {
+            nodes.addAll(next.all());
+        }
+        for (final String node : nodes) {
             if (topology.isMe(node)) {
                 continue;
             }
-            neighbours.put(node, new HttpClient(new ConnectionString(node)));
+            final HttpRequest request = HttpRequest.newBuilder(URI.create(node + "/v0/status"))
+                    .timeout(Duration.ofNanos(HEARTBEAT_INTERVAL * MISSED_HEARTBEATS))
+                    .GET()
+                    .build();
+            final CircuitBreaker breaker = neighbour(node).breaker;
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                // An overloaded node is alive, the circuit breaker is about the dead ones
+                if (error == null && (response.statusCode() == 200 || response.statusCode() == 503)) {
+                    breaker.onHeartbeat();
+                } else {
+                    breaker.onFailure();
+                }
+            });
         }
     }
 
+    @NotNull
+    private Neighbour neighbour(@NotNull final String node) {
+        return neighbours.computeIfAbsent(node, key -> new Neighbour(key, metrics));
+    }
+
+    /**
+     * Sends the request unless the node is known to be down, in which case fails at once.
+     */
+    @NotNull
+    private <T> CompletableFuture<HttpResponse<T>> send(
+            @NotNull final String node,
+            @NotNull final HttpRequest request,
+            @NotNull final HttpResponse.BodyHandler<T> handler) {
+        final Neighbour neighbour = neighbour(node);
+        if (!neighbour.breaker.allowRequest()) {
+            neighbour.rejected.increment();
+            return CompletableFuture.failedFuture(new IOException("Node is unavailable " + node));
+        }
+        final long start = System.nanoTime();
+        return client.sendAsync(request, handler).whenComplete((response, error) -> {
+            neighbour.latency.recordSince(start);
+            if (error == null) {
+                neighbour.breaker.onSuccess();
+            } else {
+                neighbour.errors.increment();
+                neighbour.breaker.onFailure();
+            }
+        });
+    }
+
 
     @Override
     public void handleDefault(final Request request, final HttpSession session) throws IOException {
+        ((StorageSession) session).begin(endpointTimer(request));
         switch (request.getPath()) {
             case "/v0/status":
                 session.sendResponse(status());
                 break;
+            case "/v0/metrics":
+                session.sendResponse(metrics());
+                break;
             case "/v0/entity":
                 entity(request, session);
                 break;
             case "/v0/entities":
                 entities(request, session);
                 break;
+            case BATCH_PATH:
+                batch(request, session);
+                break;
+            case TOPOLOGY_PATH:
+                topology(request, session);
+                break;
+            case Rebalancer.HANDOFF_PATH:
+                handoff(request, session);
+                break;
             default:
                 session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
                 break;
@@ -76,11 +328,28 @@ public class NodeService extends HttpServer implements Service {
 
     @Override
     public HttpSession createSession(final Socket socket) throws RejectedSessionException {
-        return new StorageSession(socket, this);
+        return new StorageSession(socket, this, metrics);
     }
 
+    /**
+     * Answers {@code 503} listing the overloaded lanes if any lane of the node is overloaded,
+     * so that a balancer steers the clients to the other nodes.
+     */
     private Response status() {
-        return new Response(Response.OK, Response.EMPTY);
+        final StringBuilder overloaded = new StringBuilder();
+        for (final Lane lane : Lane.values()) {
+            if (admission.isOverloaded(lane)) {
+                overloaded.append("overloaded ").append(lane.name().toLowerCase()).append('\n');
+            }
+        }
+        if (overloaded.length() == 0) {
+            return new Response(Response.OK, Response.EMPTY);
+        }
+        return new Response(Response.SERVICE_UNAVAILABLE, overloaded.toString().getBytes(UTF_8));
+    }
+
+    private Response metrics() {
+        return new Response(Response.OK, metrics.render().getBytes(UTF_8));
     }
 
     private void entity(
@@ -93,16 +362,32 @@ public class NodeService extends HttpServer implements Service {
         }
 
         final ByteBuffer key = ByteBuffer.wrap(id.getBytes(Charsets.UTF_8));
-        final String primaryNode = topology.primaryFor(key);
-        if (!topology.isMe(primaryNode)) {
-            asyncExecute(() -> {
-                askAnotherNodeAndHandle(request,session, primaryNode);
-            });
+        if (ReplicaProtocol.isProxied(request)) {
+            execute(Lane.REPLICA, session, () -> handleReplicaRequest(request, session, key));
             return;
         }
-        asyncExecute(() -> {
-            handleMyRequest(request,session,key);
-        });
+        final int method = request.getMethod();
+        if (method != Request.METHOD_GET && method != Request.METHOD_PUT && method != Request.METHOD_DELETE) {
+            session.sendResponse(new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY));
+            return;
+        }
+        final Topology<String> current = topology;
+        final Replicas replicas;
+        try {
+            replicas = Replicas.parse(request.getParameter("replicas="), current.all().size());
+        } catch (IllegalArgumentException e) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+            return;
+        }
+        // Per request, the reads and the writes complete on other threads
+        final String[] nodes = new String[replicas.getFrom()];
+        current.replicasFor(key, nodes);
+        if (request.getHeader(TopologyFormat.EPOCH_HEADER + ": ") != null && !containsMe(current, nodes)) {
+            // A smart client routed by a stale topology, let it refresh
+            session.sendResponse(withEpoch(new Response(MISDIRECTED, Response.EMPTY)));
+            return;
+        }
+        coordinate(request, session, key, current, nodes, replicas);
     }
 
     private void entities(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
@@ -119,92 +404,957 @@ public class NodeService extends HttpServer implements Service {
         if (end != null && end.isEmpty()) {
             end = null;
         }
-        try {
-            final Iterator<Record> records = dao.range(ByteBuffer.wrap(start.getBytes(UTF_8)),
-                    end == null ? null : ByteBuffer.wrap(end.getBytes(UTF_8)));
-            ((StorageSession) session).stream(records);
-        } catch (IOException e) {
-            session.sendError(Response.INTERNAL_ERROR, e.getMessage());
+        final ByteBuffer from = ByteBuffer.wrap(start.getBytes(UTF_8));
+        final ByteBuffer to = end == null ? null : ByteBuffer.wrap(end.getBytes(UTF_8));
+        final StorageSession storageSession = (StorageSession) session;
+        if (ReplicaProtocol.isProxied(request)) {
+            execute(Lane.REPLICA, session, () -> {
+                try {
+                    storageSession.streamFramed(versionedRange(from, to));
+                } catch (IOException e) {
+                    rangeFailed(session, e);
+                }
+            });
+            return;
         }
+        final String uri = "/v0/entities?start=" + start + (end == null ? "" : "&end=" + end);
+        execute(Lane.CLIENT, session, () -> {
+            try {
+                coordinateRange(storageSession, uri, from, to);
+            } catch (IOException e) {
+                rangeFailed(session, e);
+            }
+        });
+    }
 
+    private void coordinateRange(
+            @NotNull final StorageSession session,
+            @NotNull final String uri,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        final Set<String> nodes = new HashSet<>(topology.all());
+        final Topology<String> next = pending;
+        if (next != null) {
+            nodes.addAll(next.all());
+        }
+        if (nodes.size() == 1) {
+            final Cursor cursor = dao.cursor();
+            try {
+                cursor.seek(from, to);
+            } catch (IOException e) {
+                cursor.close();
+                throw e;
+            }
+            session.stream(cursor);
+            return;
+        }
+        session.stream(mergedRange(nodes, uri, from, to));
+    }
 
+    private static void rangeFailed(
+            @NotNull final HttpSession session,
+            @NotNull final IOException error) {
+        log.error("Can't open range", error);
+        send(session, new Response(Response.INTERNAL_ERROR, Response.EMPTY));
     }
 
-    private void handleMyRequest(@NotNull final Request request, @NotNull final HttpSession session, @NotNull final ByteBuffer key) {
-        Response response;
+    /**
+     * Merges the ranges of all the nodes, so that every key is found whichever node stores it.
+     * Remote ranges are requested at once and read ahead concurrently.
+     */
+    @NotNull
+    private CloseableIterator<Record> mergedRange(
+            @NotNull final Set<String> nodes,
+            @NotNull final String uri,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        final List<CloseableIterator<Record>> ranges = new ArrayList<>(nodes.size());
         try {
-            response = determineRequest(request, key);
+            for (final String node : nodes) {
+                if (topology.isMe(node)) {
+                    ranges.add(versionedRange(from, to));
+                    continue;
+                }
+                final RemoteRange range = new RemoteRange(node, RANGE_PREFETCH);
+                ranges.add(range);
+                send(node, ReplicaProtocol.proxied(node, uri).GET().build(), range.handler())
+                        .whenComplete((response, error) -> {
+                            if (error != null) {
+                                range.fail(error);
+                            }
+                        });
+            }
         } catch (IOException e) {
-            response = new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+            ranges.forEach(CloseableIterator::close);
+            throw e;
         }
-        try {
-            session.sendResponse(response);
-        } catch (IOException exc) {
-            log.error("Error caused by: ", exc);
+        return new MergedRange(ranges);
+    }
+
+    /**
+     * Returns the local records between the keys with their versions, removals included.
+     */
+    @NotNull
+    private CloseableIterator<Record> versionedRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        final CloseableIterator<Record> records = dao.versionedIterator(from);
+        if (to == null) {
+            return records;
         }
+        return Iters.closeable(Iters.until(records, Record.of(to, ByteBuffer.allocate(0))), records::close);
     }
 
-    private Response determineRequest(@NotNull final Request request, @NotNull final ByteBuffer key) throws IOException {
-        Response response;
+    private void batch(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
         switch (request.getMethod()) {
             case Request.METHOD_GET:
-                response = get(key);
+                batchGet(request, session);
                 break;
             case Request.METHOD_PUT:
-                response = upsert(key, request.getBody());
-                break;
-            case Request.METHOD_DELETE:
-                response = remove(key);
+                batchPut(request, session);
                 break;
             default:
-                response = new Response(Response.BAD_REQUEST, Response.EMPTY);
+                session.sendError(Response.METHOD_NOT_ALLOWED, "Wrong Method");
                 break;
         }
-        return response;
     }
 
-    private void askAnotherNodeAndHandle(@NotNull final Request request,
-                                         @NotNull final HttpSession session,
-                                         @NotNull final String primaryNode) {
+    private void batchGet(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        final List<ByteBuffer> keys;
+        try {
+            keys = parseIds(request);
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (keys.isEmpty()) {
+            session.sendError(Response.BAD_REQUEST, "No ids");
+            return;
+        }
+        if (ReplicaProtocol.isProxied(request)) {
+            execute(Lane.REPLICA, session, () -> {
+                Response response;
+                try {
+                    response = new Response(Response.OK, BatchFormat.encodeRecords(versionedRecords(keys)));
+                } catch (IOException e) {
+                    response = new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+                }
+                send(session, response);
+            });
+            return;
+        }
+        final Topology<String> current = topology;
+        final Replicas replicas;
         try {
-            session.sendResponse(proxy(primaryNode, request));
-        } catch (InterruptedException | PoolException | HttpException | IOException e) {
-            Response response = new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+            replicas = Replicas.parse(request.getParameter("replicas="), current.all().size());
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+        execute(Lane.CLIENT, session, () -> getBatch(keys, current, replicas).whenComplete((records, error) -> {
+            if (error != null) {
+                send(session, failure(error, Response.GATEWAY_TIMEOUT));
+                return;
+            }
             try {
-                session.sendResponse(response);
-            } catch (IOException exc) {
-                log.error("Error caused by: ", exc);
+                ((StorageSession) session).stream(Iters.closeable(records.iterator()));
+            } catch (IOException e) {
+                log.error("Error caused by: ", e);
             }
+        }));
+    }
+
+    /**
+     * Reads every key from all of its replicas and, once {@code ack} of them answer,
+     * takes the freshest version as {@link #coordinate} does. Each replica gets one request
+     * for all of its keys. Runs on an admitted worker, so the local part is read right away,
+     * once the remote parts are sent.
+     */
+    @NotNull
+    private CompletableFuture<List<Record>> getBatch(
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final Topology<String> topology,
+            @NotNull final Replicas replicas) {
+        final List<List<String>> replicasOfKeys = new ArrayList<>(keys.size());
+        final Map<String, List<ByteBuffer>> byNode = new HashMap<>();
+        for (final ByteBuffer key : keys) {
+            final List<String> nodes = topology.replicasFor(key, replicas.getFrom());
+            replicasOfKeys.add(nodes);
+            for (final String node : nodes) {
+                byNode.computeIfAbsent(node, n -> new ArrayList<>()).add(key);
+            }
+        }
+        final Map<String, CompletableFuture<Map<ByteBuffer, Value>>> parts = new HashMap<>();
+        String local = null;
+        for (final Map.Entry<String, List<ByteBuffer>> entry : byNode.entrySet()) {
+            final String node = entry.getKey();
+            if (topology.isMe(node)) {
+                local = node;
+                continue;
+            }
+            final HttpRequest request = ReplicaProtocol.proxied(node, batchUri(entry.getValue())).GET().build();
+            parts.put(node, send(node, request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+                checkPart(response, 200, node);
+                final Map<ByteBuffer, Value> found = new HashMap<>();
+                for (final Record record : BatchFormat.decodeRecords(response.body())) {
+                    found.put(record.getKey(), Value.decode(record.getValue()));
+                }
+                return found;
+            }));
+        }
+        if (local != null) {
+            parts.put(local, getLocalBatch(byNode.get(local)));
+        }
+        final List<CompletableFuture<Value>> values = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            final ByteBuffer key = keys.get(i);
+            final List<String> nodes = replicasOfKeys.get(i);
+            final List<CompletableFuture<Value>> versions = new ArrayList<>(nodes.size());
+            for (final String node : nodes) {
+                versions.add(parts.get(node).thenApply(found -> found.get(key)));
+            }
+            values.add(Quorum.of(versions, replicas.getAck()).thenApply(NodeService::freshest));
+        }
+        return CompletableFuture.allOf(values.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            final List<Record> records = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                final Value value = values.get(i).join();
+                if (value != null && !value.isTombstone()) {
+                    records.add(Record.of(keys.get(i), value.getData()));
+                }
+            }
+            return records;
+        });
+    }
+
+    /**
+     * Fails a part of a batch fan-out unless the node answered with the expected status.
+     * A part shed by the node fails as overloaded, so the client gets {@code 503} too.
+     *
+     * @throws CompletionException if the node failed
+     */
+    private static void checkPart(
+            @NotNull final HttpResponse<?> response,
+            final int status,
+            @NotNull final String node) {
+        if (response.statusCode() == 503) {
+            throw new CompletionException(new AdmissionControl.OverloadedException(node));
+        }
+        if (response.statusCode() != status) {
+            throw new CompletionException(
+                    new IOException("Batch failed on " + node + ": " + response.statusCode()));
         }
     }
 
-    private Response proxy(@NotNull final String primaryNode, @NotNull final Request request) throws InterruptedException, IOException, HttpException, PoolException {
+    @NotNull
+    private CompletableFuture<Map<ByteBuffer, Value>> getLocalBatch(@NotNull final List<ByteBuffer> keys) {
         try {
-            return neighbours.get(primaryNode).invoke(request, 100);
-        } catch (InterruptedException | PoolException | HttpException | IOException e) {
-            throw e;
+            final List<Value> values = dao.getAllVersioned(keys);
+            final Map<ByteBuffer, Value> found = new HashMap<>();
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i) != null) {
+                    found.put(keys.get(i), values.get(i));
+                }
+            }
+            return CompletableFuture.completedFuture(found);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
 
-    private Response get(final ByteBuffer key) throws IOException {
-        Response response;
+    /**
+     * Returns the stored versions of the keys, tombstones included, as records with encoded {@link Value}s.
+     * Keys never written are left out.
+     */
+    @NotNull
+    private List<Record> versionedRecords(@NotNull final List<ByteBuffer> keys) throws IOException {
+        final List<Value> values = dao.getAllVersioned(keys);
+        final List<Record> records = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) != null) {
+                records.add(Record.of(keys.get(i), ByteBuffer.wrap(values.get(i).encode())));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Collects the {@code id} parameters in the request order.
+     *
+     * @throws IllegalArgumentException if an id has a malformed {@code %} escape
+     */
+    @NotNull
+    private static List<ByteBuffer> parseIds(@NotNull final Request request) {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        final String uri = request.getURI();
+        final int query = uri.indexOf('?');
+        if (query < 0) {
+            return keys;
+        }
+        for (final String parameter : uri.substring(query + 1).split("&")) {
+            if (parameter.startsWith("id=") && parameter.length() > 3) {
+                final String id = URLDecoder.decode(parameter.substring(3), UTF_8);
+                keys.add(ByteBuffer.wrap(id.getBytes(UTF_8)));
+            }
+        }
+        return keys;
+    }
+
+    @NotNull
+    private static String batchUri(@NotNull final List<ByteBuffer> keys) {
+        final StringBuilder uri = new StringBuilder(BATCH_PATH);
+        char separator = '?';
+        for (final ByteBuffer key : keys) {
+            uri.append(separator)
+                    .append("id=")
+                    .append(URLEncoder.encode(new String(fromByteBufferToByteArray(key), UTF_8), UTF_8));
+            separator = '&';
+        }
+        return uri.toString();
+    }
+
+    private void batchPut(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        final byte[] body = request.getBody();
+        final Collection<Mutation> mutations;
         try {
-            final ByteBuffer value = dao.get(key);
-            response = new Response(Response.OK, fromByteBufferToByteArray(value));
-        } catch (NoSuchElementException e) {
-            response = new Response(Response.NOT_FOUND, "No such a key".getBytes(Charsets.UTF_8));
+            mutations = Mutation.latest(BatchFormat.decodeMutations(body == null ? Response.EMPTY : body));
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (ReplicaProtocol.isProxied(request)) {
+            final long timestamp;
+            try {
+                timestamp = ReplicaProtocol.timestampOf(request);
+            } catch (IllegalArgumentException e) {
+                session.sendError(Response.BAD_REQUEST, e.getMessage());
+                return;
+            }
+            Clock.observe(timestamp);
+            answerBatchPut(session, mutations, applyLocal(Lane.REPLICA, mutations, timestamp));
+            return;
         }
+        final Topology<String> current = topology;
+        final Replicas replicas;
+        try {
+            replicas = Replicas.parse(request.getParameter("replicas="), current.all().size());
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+        execute(Lane.CLIENT, session, () -> answerBatchPut(
+                session,
+                mutations,
+                applyBatch(mutations, Clock.currentTimeMicros(), current, replicas)));
+    }
+
+    private void answerBatchPut(
+            @NotNull final HttpSession session,
+            @NotNull final Collection<Mutation> mutations,
+            @NotNull final CompletableFuture<Void> applied) {
+        applied.whenComplete((done, error) -> {
+            forgetReads(mutations);
+            send(session, error == null
+                    ? new Response(Response.CREATED, Response.EMPTY)
+                    : failure(error, Response.GATEWAY_TIMEOUT));
+        });
+    }
+
+    /**
+     * Applies the mutations on all the replicas of their keys, stamped once for the whole batch,
+     * and completes once every mutation is acknowledged by {@code ack} of its replicas.
+     * Each replica gets one request for all of its mutations. During a handoff the mutations also go
+     * to their new replicas, as in {@link #write}, those don't count towards {@code ack}.
+     * Runs on an admitted worker, so the local part is applied right away, once the remote parts are sent.
+     */
+    @NotNull
+    private CompletableFuture<Void> applyBatch(
+            @NotNull final Collection<Mutation> mutations,
+            final long timestamp,
+            @NotNull final Topology<String> topology,
+            @NotNull final Replicas replicas) {
+        final Topology<String> next = pending;
+        final List<List<String>> replicasOfMutations = new ArrayList<>(mutations.size());
+        final Map<String, List<Mutation>> byNode = new HashMap<>();
+        final Map<String, List<Mutation>> byNewNode = new HashMap<>();
+        for (final Mutation mutation : mutations) {
+            final List<String> nodes = topology.replicasFor(mutation.getKey(), replicas.getFrom());
+            replicasOfMutations.add(nodes);
+            for (final String node : nodes) {
+                byNode.computeIfAbsent(node, n -> new ArrayList<>()).add(mutation);
+            }
+            if (next != null) {
+                final int count = Math.min(replicas.getFrom(), next.all().size());
+                for (final String node : next.replicasFor(mutation.getKey(), count)) {
+                    if (!nodes.contains(node)) {
+                        byNewNode.computeIfAbsent(node, n -> new ArrayList<>()).add(mutation);
+                    }
+                }
+            }
+        }
+        final Map<String, CompletableFuture<Void>> parts = new HashMap<>();
+        String local = null;
+        for (final Map.Entry<String, List<Mutation>> entry : byNode.entrySet()) {
+            if (topology.isMe(entry.getKey())) {
+                local = entry.getKey();
+            } else {
+                parts.put(entry.getKey(), applyRemote(entry.getKey(), entry.getValue(), timestamp));
+            }
+        }
+        for (final Map.Entry<String, List<Mutation>> entry : byNewNode.entrySet()) {
+            final String node = entry.getKey();
+            final CompletableFuture<Void> duplicate = next.isMe(node)
+                    ? applyNow(entry.getValue(), timestamp)
+                    : applyRemote(node, entry.getValue(), timestamp);
+            duplicate.exceptionally(error -> {
+                log.warn("Batch put to the new replica {} failed", node, error);
+                return null;
+            });
+        }
+        if (local != null) {
+            parts.put(local, applyNow(byNode.get(local), timestamp));
+        }
+        final List<CompletableFuture<List<Void>>> acks = new ArrayList<>(mutations.size());
+        for (final List<String> nodes : replicasOfMutations) {
+            final List<CompletableFuture<Void>> writes = new ArrayList<>(nodes.size());
+            for (final String node : nodes) {
+                writes.add(parts.get(node));
+            }
+            acks.add(Quorum.of(writes, replicas.getAck()));
+        }
+        return CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0]));
+    }
+
+    @NotNull
+    private CompletableFuture<Void> applyNow(
+            @NotNull final Collection<Mutation> mutations,
+            final long timestamp) {
+        try {
+            dao.apply(mutations, timestamp);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @NotNull
+    private CompletableFuture<Void> applyRemote(
+            @NotNull final String node,
+            @NotNull final List<Mutation> mutations,
+            final long timestamp) {
+        final HttpRequest request = ReplicaProtocol.stamped(node, BATCH_PATH, timestamp)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(BatchFormat.encodeMutations(mutations)))
+                .build();
+        return send(node, request, HttpResponse.BodyHandlers.discarding())
+                .thenAccept(response -> checkPart(response, 201, node));
+    }
+
+    @NotNull
+    private CompletableFuture<Void> applyLocal(
+            @NotNull final Lane lane,
+            @NotNull final Collection<Mutation> mutations,
+            final long timestamp) {
+        return admission.supply(lane, () -> {
+            try {
+                dao.apply(mutations, timestamp);
+                return null;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Sends the request to all the replicas of the key in parallel and answers the client
+     * once {@code ack} of them succeed, reads return the freshest of the collected versions.
+     * Reads are hedged, see {@link Hedging}, and a read coming while the same read is in flight
+     * joins it, see {@link SingleFlight}.
+     */
+    private void coordinate(@NotNull final Request request,
+                            @NotNull final HttpSession session,
+                            @NotNull final ByteBuffer key,
+                            @NotNull final Topology<String> topology,
+                            @NotNull final String[] nodes,
+                            @NotNull final Replicas replicas) {
+        final long timestamp = Clock.currentTimeMicros();
+        if (request.getMethod() == Request.METHOD_GET) {
+            // Every caller builds its own response, one-nio sessions may alter it while writing
+            final Supplier<CompletableFuture<Value>> read = () -> hedging.read(
+                    Arrays.asList(nodes),
+                    replicas.getAck(),
+                    node -> topology.isMe(node) ? local(request, key, timestamp) : remote(node, request, timestamp))
+                    .thenApply(NodeService::freshest);
+            // Independent of the position changes by the readers of the key
+            reads.run(key.duplicate(), replicas, read)
+                    .whenComplete((value, error) -> send(session, error == null
+                            ? ReplicaProtocol.toClient(value)
+                            : failure(error, Response.GATEWAY_TIMEOUT)));
+            return;
+        }
+        write(request, key, timestamp, topology, nodes, replicas).whenComplete((values, error) -> {
+            // A read started before the write must not be joined after it is acknowledged
+            forgetReads(key);
+            if (error != null) {
+                send(session, failure(error, Response.GATEWAY_TIMEOUT));
+            } else if (request.getMethod() == Request.METHOD_PUT) {
+                send(session, new Response(Response.CREATED, Response.EMPTY));
+            } else {
+                send(session, new Response(Response.ACCEPTED, Response.EMPTY));
+            }
+        });
+    }
+
+    /**
+     * Sends the write to all the replicas. During a handoff it also goes to the new replicas,
+     * those don't count towards {@code ack}.
+     */
+    @NotNull
+    private CompletableFuture<List<Value>> write(@NotNull final Request request,
+                                                 @NotNull final ByteBuffer key,
+                                                 final long timestamp,
+                                                 @NotNull final Topology<String> topology,
+                                                 @NotNull final String[] nodes,
+                                                 @NotNull final Replicas replicas) {
+        final List<CompletableFuture<Value>> responses = new ArrayList<>(nodes.length);
+        for (final String node : nodes) {
+            responses.add(topology.isMe(node)
+                    ? local(request, key, timestamp)
+                    : remote(node, request, timestamp));
+        }
+        final Topology<String> next = pending;
+        if (next != null) {
+            final String[] extra = new String[Math.min(replicas.getFrom(), next.all().size())];
+            next.replicasFor(key, extra);
+            for (final String node : extra) {
+                if (!contains(nodes, node)) {
+                    final CompletableFuture<Value> write = next.isMe(node)
+                            ? local(request, key, timestamp)
+                            : remote(node, request, timestamp);
+                    write.exceptionally(error -> {
+                        log.warn("Write to the new replica {} failed", node, error);
+                        return null;
+                    });
+                }
+            }
+        }
+        return Quorum.of(responses, replicas.getAck());
+    }
+
+    /**
+     * Changes the cluster membership to the nodes listed one per line in the body.
+     *
+     * <p>A client {@code PUT} makes this node coordinate the change in two phases over the old
+     * and the new nodes. A proxied {@code PUT} prepares the change: the node starts duplicating
+     * writes to the new replicas, hands its data off and answers when done. Only if every node
+     * is prepared, a proxied {@code POST} commits the new membership, otherwise a proxied
+     * {@code DELETE} aborts it. Reads are served by the old replicas until the commit.
+     * The commit carries the epoch of the new membership, next to the highest epoch the nodes
+     * answered the prepare with, so every node of the membership has the same epoch.
+     */
+    private void topology(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        if (request.getMethod() == Request.METHOD_GET) {
+            describeTopology(request, session);
+            return;
+        }
+        final byte[] body = request.getBody();
+        final Set<String> nodes = new HashSet<>();
+        for (final String node : new String(body == null ? Response.EMPTY : body, UTF_8).split("\n")) {
+            if (!node.isBlank()) {
+                nodes.add(node.trim());
+            }
+        }
+        if (nodes.isEmpty()) {
+            session.sendError(Response.BAD_REQUEST, "No nodes");
+            return;
+        }
+        if (ReplicaProtocol.isProxied(request)) {
+            final long newEpoch;
+            try {
+                newEpoch = Long.parseLong(request.getHeader(TopologyFormat.EPOCH_HEADER + ": "));
+            } catch (NumberFormatException e) {
+                session.sendError(Response.BAD_REQUEST, "No epoch");
+                return;
+            }
+            changeLocal(request.getMethod(), nodes, newEpoch).whenComplete((done, error) -> send(session,
+                    error == null
+                            ? withEpoch(new Response(Response.OK, Response.EMPTY))
+                            : new Response(Response.CONFLICT, Response.EMPTY)));
+            return;
+        }
+        if (request.getMethod() != Request.METHOD_PUT) {
+            session.sendError(Response.METHOD_NOT_ALLOWED, "Wrong Method");
+            return;
+        }
+        final Set<String> involved = new HashSet<>(topology.all());
+        involved.addAll(nodes);
+        broadcast(involved, "PUT", body, nodes, REBALANCE_TIMEOUT, 0)
+                .handle((highest, error) -> {
+                    if (error != null) {
+                        log.error("Topology change to {} aborted", nodes, error);
+                        return null;
+                    }
+                    return highest + 1;
+                })
+                .thenCompose(newEpoch -> broadcast(
+                        involved,
+                        newEpoch == null ? "DELETE" : "POST",
+                        body,
+                        nodes,
+                        null,
+                        newEpoch == null ? 0 : newEpoch)
+                        .thenApply(done -> newEpoch != null))
+                .whenComplete((committed, error) -> send(session, error == null && committed
+                        ? new Response(Response.OK, Response.EMPTY)
+                        : new Response(Response.INTERNAL_ERROR, Response.EMPTY)));
+    }
+
+    /**
+     * Answers with the {@link TopologyFormat} of the serving topology or,
+     * given {@code id} and optional {@code replicas}, with the replicas of the key one per line.
+     */
+    private void describeTopology(
+            @NotNull final Request request,
+            @NotNull final HttpSession session) throws IOException {
+        final Topology<String> current;
+        final long currentEpoch;
+        synchronized (this) {
+            current = topology;
+            currentEpoch = epoch;
+        }
+        final String id = request.getParameter("id=");
+        final String body;
+        if (id == null || id.isEmpty()) {
+            body = TopologyFormat.encode(current, currentEpoch);
+        } else {
+            final Replicas replicas;
+            try {
+                replicas = Replicas.parse(request.getParameter("replicas="), current.all().size());
+            } catch (IllegalArgumentException e) {
+                session.sendError(Response.BAD_REQUEST, e.getMessage());
+                return;
+            }
+            final ByteBuffer key = ByteBuffer.wrap(id.getBytes(UTF_8));
+            body = String.join("\n", current.replicasFor(key, replicas.getFrom())) + '\n';
+        }
+        final Response response = new Response(Response.OK, body.getBytes(UTF_8));
+        response.addHeader(TopologyFormat.EPOCH_HEADER + ": " + currentEpoch);
+        session.sendResponse(response);
+    }
+
+    @NotNull
+    private synchronized Response withEpoch(@NotNull final Response response) {
+        response.addHeader(TopologyFormat.EPOCH_HEADER + ": " + epoch);
         return response;
     }
 
-    private Response remove(final ByteBuffer key) throws IOException {
-        dao.remove(key);
-        return new Response(Response.ACCEPTED, Response.EMPTY);
+    private static boolean containsMe(
+            @NotNull final Topology<String> topology,
+            @NotNull final String[] nodes) {
+        for (final String node : nodes) {
+            if (topology.isMe(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(
+            @NotNull final String[] nodes,
+            @NotNull final String node) {
+        for (final String candidate : nodes) {
+            if (candidate.equals(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs a phase of the membership change on all the involved nodes.
+     *
+     * @param newEpoch epoch of the new membership, used by the commit only
+     * @return highest epoch of the involved nodes
+     */
+    @NotNull
+    private CompletableFuture<Long> broadcast(
+            @NotNull final Set<String> involved,
+            @NotNull final String method,
+            @NotNull final byte[] body,
+            @NotNull final Set<String> nodes,
+            @Nullable final Duration timeout,
+            final long newEpoch) {
+        final List<CompletableFuture<Long>> phases = new ArrayList<>(involved.size());
+        for (final String node : involved) {
+            if (topology.isMe(node)) {
+                phases.add(changeLocal(methodOf(method), nodes, newEpoch).thenApply(done -> getEpoch()));
+                continue;
+            }
+            final HttpRequest.Builder builder = ReplicaProtocol.proxied(node, TOPOLOGY_PATH)
+                    .header(TopologyFormat.EPOCH_HEADER, Long.toString(newEpoch))
+                    .method(method, HttpRequest.BodyPublishers.ofByteArray(body));
+            if (timeout != null) {
+                builder.timeout(timeout);
+            }
+            final HttpRequest request = builder.build();
+            phases.add(send(node, request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+                if (response.statusCode() != 200) {
+                    throw new CompletionException(
+                            new IOException(method + " topology failed on " + node + ": " + response.statusCode()));
+                }
+                return response.headers().firstValueAsLong(TopologyFormat.EPOCH_HEADER).orElse(0);
+            }));
+        }
+        return CompletableFuture.allOf(phases.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            long highest = 0;
+            for (final CompletableFuture<Long> phase : phases) {
+                highest = Math.max(highest, phase.join());
+            }
+            return highest;
+        });
+    }
+
+    private synchronized long getEpoch() {
+        return epoch;
+    }
+
+    private static int methodOf(@NotNull final String method) {
+        switch (method) {
+            case "PUT":
+                return Request.METHOD_PUT;
+            case "POST":
+                return Request.METHOD_POST;
+            default:
+                return Request.METHOD_DELETE;
+        }
+    }
+
+    /**
+     * Prepares, commits or aborts the membership change on this node.
+     *
+     * @param newEpoch epoch of the new membership, used by the commit only
+     */
+    @NotNull
+    private synchronized CompletableFuture<Void> changeLocal(
+            final int method,
+            @NotNull final Set<String> nodes,
+            final long newEpoch) {
+        final boolean same = pending != null && pending.all().equals(nodes);
+        switch (method) {
+            case Request.METHOD_PUT:
+                if (pending != null && !same) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("Another change in progress"));
+                }
+                final Topology<String> before = topology;
+                final Topology<String> after = before.withNodes(nodes);
+                pending = after;
+                return CompletableFuture.runAsync(() -> {
+                    try {
+                        rebalancer.handoff(before, after);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, rebalanceExecutor);
+            case Request.METHOD_POST:
+                if (!same) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("Nothing to commit"));
+                }
+                if (newEpoch <= epoch) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("Stale epoch " + newEpoch));
+                }
+                try {
+                    dao.upsert(
+                            MEMBERSHIP_KEY.duplicate(),
+                            ByteBuffer.wrap(TopologyFormat.encode(pending, newEpoch).getBytes(UTF_8)));
+                } catch (IOException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+                topology = pending;
+                pending = null;
+                epoch = newEpoch;
+                log.info("Topology changed to {} at epoch {}", nodes, newEpoch);
+                return CompletableFuture.completedFuture(null);
+            case Request.METHOD_DELETE:
+                if (same) {
+                    pending = null;
+                }
+                return CompletableFuture.completedFuture(null);
+            default:
+                return CompletableFuture.failedFuture(new IllegalArgumentException("Unsupported method " + method));
+        }
+    }
+
+    private void handoff(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        final byte[] body = request.getBody();
+        if (!ReplicaProtocol.isProxied(request) || request.getMethod() != Request.METHOD_PUT || body == null) {
+            session.sendError(Response.BAD_REQUEST, "Handoff is internal");
+            return;
+        }
+        execute(Lane.HANDOFF, session, () -> {
+            Response response;
+            try {
+                Rebalancer.accept(dao, body);
+                response = new Response(Response.CREATED, Response.EMPTY);
+            } catch (IllegalArgumentException e) {
+                response = new Response(Response.BAD_REQUEST, Response.EMPTY);
+            } catch (IOException e) {
+                response = new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+            }
+            send(session, response);
+        });
+    }
+
+    @NotNull
+    private CompletableFuture<Value> local(@NotNull final Request request,
+                                           @NotNull final ByteBuffer key,
+                                           final long timestamp) {
+        return admission.supply(Lane.CLIENT, () -> {
+            try {
+                return serveLocal(request, key, timestamp);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    @NotNull
+    private CompletableFuture<Value> remote(@NotNull final String node,
+                                            @NotNull final Request request,
+                                            final long timestamp) {
+        final HttpRequest replicaRequest = ReplicaProtocol.request(node, request, timestamp);
+        return send(node, replicaRequest, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> checkReplica(request, response));
+    }
+
+    /**
+     * Extracts the version read by a replica, {@code null} for writes and for keys never seen.
+     *
+     * @throws CompletionException if the replica failed
+     */
+    @Nullable
+    private static Value checkReplica(@NotNull final Request request, @NotNull final HttpResponse<byte[]> response) {
+        try {
+            switch (request.getMethod()) {
+                case Request.METHOD_GET:
+                    return ReplicaProtocol.parse(response);
+                case Request.METHOD_PUT:
+                    expect(response, 201);
+                    return null;
+                case Request.METHOD_DELETE:
+                    expect(response, 202);
+                    return null;
+                default:
+                    throw new IOException("Unsupported method " + request.getMethod());
+            }
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void expect(@NotNull final HttpResponse<?> response, final int status) throws IOException {
+        if (response.statusCode() != status) {
+            throw new IOException("Replica failed with " + response.statusCode());
+        }
+    }
+
+    @Nullable
+    private static Value freshest(@NotNull final List<Value> values) {
+        Value freshest = null;
+        for (final Value value : values) {
+            if (value != null && (freshest == null || value.compareTo(freshest) > 0)) {
+                freshest = value;
+            }
+        }
+        return freshest;
+    }
+
+    private void handleReplicaRequest(@NotNull final Request request,
+                                      @NotNull final HttpSession session,
+                                      @NotNull final ByteBuffer key) {
+        Response response;
+        try {
+            final long timestamp = ReplicaProtocol.timestampOf(request);
+            Clock.observe(timestamp);
+            response = serveReplica(request, key, timestamp);
+        } catch (IllegalArgumentException e) {
+            response = new Response(Response.BAD_REQUEST, Response.EMPTY);
+        } catch (IOException e) {
+            response = new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+        }
+        send(session, response);
+    }
+
+    private Response serveReplica(@NotNull final Request request,
+                                  @NotNull final ByteBuffer key,
+                                  final long timestamp) throws IOException {
+        switch (request.getMethod()) {
+            case Request.METHOD_GET:
+                return ReplicaProtocol.response(serveLocal(request, key, timestamp));
+            case Request.METHOD_PUT:
+                serveLocal(request, key, timestamp);
+                forgetReads(key);
+                return new Response(Response.CREATED, Response.EMPTY);
+            case Request.METHOD_DELETE:
+                serveLocal(request, key, timestamp);
+                forgetReads(key);
+                return new Response(Response.ACCEPTED, Response.EMPTY);
+            default:
+                return new Response(Response.BAD_REQUEST, Response.EMPTY);
+        }
+    }
+
+    /**
+     * Serves the request by the local storage.
+     *
+     * @return stored version for a read, {@code null} for a write or a key never seen
+     */
+    @Nullable
+    private Value serveLocal(@NotNull final Request request,
+                             @NotNull final ByteBuffer key,
+                             final long timestamp) throws IOException {
+        switch (request.getMethod()) {
+            case Request.METHOD_GET:
+                return getVersioned(key);
+            case Request.METHOD_PUT:
+                final byte[] body = request.getBody();
+                dao.upsert(key, ByteBuffer.wrap(body == null ? Response.EMPTY : body), timestamp);
+                return null;
+            case Request.METHOD_DELETE:
+                dao.remove(key, timestamp);
+                return null;
+            default:
+                throw new IllegalArgumentException("Unsupported method " + request.getMethod());
+        }
+    }
+
+    /**
+     * Keeps the reads coordinated by this node from joining the flights started before the write.
+     * Called once per write: by the coordinator once it is acknowledged, by a replica once it is stored.
+     */
+    private void forgetReads(@NotNull final ByteBuffer key) {
+        reads.forget(key);
+    }
+
+    private void forgetReads(@NotNull final Collection<Mutation> mutations) {
+        for (final Mutation mutation : mutations) {
+            reads.forget(mutation.getKey());
+        }
     }
 
-    private Response upsert(final ByteBuffer key, final byte[] body) throws IOException {
-        dao.upsert(key, ByteBuffer.wrap(body));
-        return new Response(Response.CREATED, Response.EMPTY);
+    @Nullable
+    private Value getVersioned(final ByteBuffer key) throws IOException {
+        try {
+            return dao.getVersioned(key);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    private static void send(@NotNull final HttpSession session, @NotNull final Response response) {
+        try {
+            session.sendResponse(response);
+        } catch (IOException exc) {
+            log.error("Error caused by: ", exc);
+        }
     }
 
     private static HttpServerConfig getConfig(final int port, final int minNumOfWorkers, final int maxNumOfWorkers) {
@@ -217,4 +1367,25 @@ public class NodeService extends HttpServer implements Service {
         config.maxWorkers = maxNumOfWorkers;
         return config;
     }
+
+    /**
+     * State kept per neighbour node.
+     */
+    private static final class Neighbour {
+        private final CircuitBreaker breaker = new CircuitBreaker(
+                System::nanoTime,
+                HEARTBEAT_INTERVAL,
+                PHI_THRESHOLD,
+                FAILURE_THRESHOLD,
+                COOL_DOWN);
+        private final Metrics.Timer latency;
+        private final LongAdder errors;
+        private final LongAdder rejected;
+
+        Neighbour(@NotNull final String node, @NotNull final Metrics metrics) {
+            this.latency = metrics.timer("proxy." + node);
+            this.errors = metrics.counter("proxy." + node + ".errors");
+            this.rejected = metrics.counter("proxy." + node + ".rejected");
+        }
+    }
 }
@@ -0,0 +1,50 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Waits for the first {@code ack} successful replica responses.
+ */
+final class Quorum {
+    private Quorum() {
+    }
+
+    /**
+     * Completes with the first {@code ack} results without waiting for the slower replicas,
+     * or fails as soon as so many replicas have failed that {@code ack} can't be reached.
+     */
+    @NotNull
+    static <T> CompletableFuture<List<T>> of(
+            @NotNull final Collection<CompletableFuture<T>> replicas,
+            final int ack) {
+        final CompletableFuture<List<T>> result = new CompletableFuture<>();
+        final List<T> results = new ArrayList<>(ack);
+        final AtomicInteger failures = new AtomicInteger();
+        final int tolerated = replicas.size() - ack;
+        for (final CompletableFuture<T> replica : replicas) {
+            replica.whenComplete((value, error) -> {
+                if (error != null) {
+                    if (failures.incrementAndGet() > tolerated) {
+                        result.completeExceptionally(error);
+                    }
+                    return;
+                }
+                synchronized (results) {
+                    if (results.size() < ack) {
+                        results.add(value);
+                        if (results.size() == ack) {
+                            result.complete(new ArrayList<>(results));
+                        }
+                    }
+                }
+            });
+        }
+        return result;
+    }
+}
@@ -0,0 +1,202 @@
+package ru.mail.polis.service.vovasq;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Value;
+import ru.mail.polis.util.Clock;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands the local data off to the new owners when the cluster membership changes.
+ *
+ * <p>Every key is looked up in both topologies. A node with rank {@code p} in the new
+ * preference list of the key gets it unless the node already held it, i.e. ranked not lower
+ * than {@code p} before, so the nodes new to the list always get it. Each key is pushed once,
+ * by its old primary, which holds it whatever the replication factor of its writes was.
+ * The keys whose preference lists didn't change are not sent at all. Versions travel
+ * with their timestamps and tombstones, so a push never overwrites a fresher write.
+ * Batches are sent one by one and throttled to keep the foreground traffic served.
+ */
+final class Rebalancer {
+    static final String HANDOFF_PATH = "/v0/handoff";
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int BATCH_BYTES = 1024 * 1024;
+    private static final Duration BATCH_TIMEOUT = Duration.ofSeconds(30);
+
+    private final DAO dao;
+    private final HttpClient client;
+    private final RateLimiter limiter;
+
+    /**
+     * Creates rebalancer sending at most {@code bytesPerSecond} of the data.
+     */
+    Rebalancer(
+            @NotNull final DAO dao,
+            @NotNull final HttpClient client,
+            final double bytesPerSecond) {
+        this.dao = dao;
+        this.client = client;
+        this.limiter = RateLimiter.create(bytesPerSecond);
+    }
+
+    /**
+     * Pushes the local keys moved by the change, blocks until every batch is stored by its target.
+     *
+     * @throws IOException if some target failed to store a batch
+     */
+    void handoff(
+            @NotNull final Topology<String> before,
+            @NotNull final Topology<String> after) throws IOException {
+        final String[] oldReplicas = new String[before.all().size()];
+        final String[] newReplicas = new String[after.all().size()];
+        final List<String> targets = new ArrayList<>();
+        final Map<String, Batch> batches = new HashMap<>();
+        long keys = 0;
+        long moved = 0;
+        try (CloseableIterator<Record> records = dao.versionedIterator(ByteBuffer.allocate(0))) {
+            while (records.hasNext()) {
+                final Record record = records.next();
+                if (!record.getKey().hasRemaining()) {
+                    // Membership of this node, see NodeService
+                    continue;
+                }
+                keys++;
+                targetsOf(record.getKey(), before, oldReplicas, after, newReplicas, targets);
+                if (targets.isEmpty()) {
+                    continue;
+                }
+                moved++;
+                for (final String target : targets) {
+                    final Batch batch = batches.computeIfAbsent(target, node -> new Batch());
+                    if (batch.add(record) >= BATCH_BYTES) {
+                        send(target, batch);
+                    }
+                }
+            }
+        }
+        for (final Map.Entry<String, Batch> entry : batches.entrySet()) {
+            if (!entry.getValue().records.isEmpty()) {
+                send(entry.getKey(), entry.getValue());
+            }
+        }
+        log.info("Handoff done: {} of {} local keys pushed to {}", moved, keys, batches.keySet());
+    }
+
+    /**
+     * Collects the nodes this node pushes the key to, none if the key stays where it is
+     * or this node isn't its old primary.
+     */
+    private static void targetsOf(
+            @NotNull final ByteBuffer key,
+            @NotNull final Topology<String> before,
+            @NotNull final String[] oldReplicas,
+            @NotNull final Topology<String> after,
+            @NotNull final String[] newReplicas,
+            @NotNull final List<String> targets) {
+        targets.clear();
+        before.replicasFor(key, oldReplicas);
+        if (!before.isMe(oldReplicas[0])) {
+            return;
+        }
+        after.replicasFor(key, newReplicas);
+        for (int rank = 0; rank < newReplicas.length; rank++) {
+            final String node = newReplicas[rank];
+            if (!heldBefore(node, oldReplicas, rank)) {
+                targets.add(node);
+            }
+        }
+    }
+
+    /**
+     * Tells whether the node held the key for every replication factor that makes it
+     * a replica at the given new rank, i.e. it ranked not lower before.
+     */
+    private static boolean heldBefore(
+            @NotNull final String node,
+            @NotNull final String[] oldReplicas,
+            final int rank) {
+        for (int i = 0; i <= rank && i < oldReplicas.length; i++) {
+            if (oldReplicas[i].equals(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void send(
+            @NotNull final String node,
+            @NotNull final Batch batch) throws IOException {
+        final byte[] body = BatchFormat.encodeRecords(batch.records);
+        batch.clear();
+        limiter.acquire(body.length);
+        final HttpRequest request = ReplicaProtocol.proxied(node, HANDOFF_PATH)
+                .timeout(BATCH_TIMEOUT)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        final HttpResponse<Void> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Handoff interrupted", e);
+        }
+        if (response.statusCode() != 201) {
+            throw new IOException("Handoff failed on " + node + ": " + response.statusCode());
+        }
+    }
+
+    /**
+     * Stores the versions pushed by another node.
+     *
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    static void accept(
+            @NotNull final DAO dao,
+            @NotNull final byte[] body) throws IOException {
+        for (final Record record : BatchFormat.decodeRecords(body)) {
+            final Value value = Value.decode(record.getValue());
+            Clock.observe(value.getTimestamp());
+            if (value.isTombstone()) {
+                dao.remove(record.getKey(), value.getTimestamp());
+            } else {
+                dao.upsert(record.getKey(), value.getData(), value.getTimestamp());
+            }
+        }
+    }
+
+    private static final class Batch {
+        private final List<Record> records = new ArrayList<>();
+        private int bytes;
+
+        /**
+         * Adds the record and returns the batch size in bytes.
+         */
+        int add(@NotNull final Record record) {
+            records.add(record);
+            bytes += Integer.BYTES * 2 + record.getKey().remaining() + record.getValue().remaining();
+            return bytes;
+        }
+
+        void clear() {
+            records.clear();
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records streamed by another node in the {@link BatchFormat} record layout.
+ *
+ * <p>The response body is read ahead while less than {@code prefetch} bytes are buffered,
+ * so the node streams concurrently with the others but never further than the consumer allows.
+ */
+final class RemoteRange implements AsyncIterator<Record>, Flow.Subscriber<List<ByteBuffer>> {
+    private static final long WAIT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    @NotNull
+    private final String node;
+    private final int prefetch;
+    // Received bytes not decoded yet are data[start, end)
+    private byte[] data;
+    private int start;
+    private int end;
+    private Flow.Subscription subscription;
+    private boolean requested;
+    private boolean done;
+    private Throwable failure;
+    private Record next;
+    private Runnable callback;
+
+    RemoteRange(
+            @NotNull final String node,
+            final int prefetch) {
+        this.node = node;
+        this.prefetch = prefetch;
+        this.data = new byte[prefetch];
+    }
+
+    /**
+     * Handles the response, only {@code 200} is read as the stream.
+     */
+    @NotNull
+    HttpResponse.BodyHandler<Void> handler() {
+        return info -> {
+            if (info.statusCode() == 200) {
+                return HttpResponse.BodySubscribers.fromSubscriber(this);
+            }
+            fail(new IOException("Range failed on " + node + ": " + info.statusCode()));
+            return HttpResponse.BodySubscribers.discarding();
+        };
+    }
+
+    /**
+     * Fails the stream if the request hasn't reached the node.
+     */
+    void fail(@NotNull final Throwable error) {
+        final Runnable ready;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            failure = error;
+            done = true;
+            ready = ready();
+        }
+        run(ready);
+    }
+
+    @Override
+    public void onSubscribe(@NotNull final Flow.Subscription subscription) {
+        final boolean cancelled;
+        synchronized (this) {
+            this.subscription = subscription;
+            cancelled = done;
+            requested = !cancelled;
+        }
+        if (cancelled) {
+            subscription.cancel();
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onNext(@NotNull final List<ByteBuffer> buffers) {
+        final Runnable ready;
+        synchronized (this) {
+            requested = false;
+            if (done) {
+                return;
+            }
+            for (final ByteBuffer buffer : buffers) {
+                append(buffer);
+            }
+            requestMore();
+            ready = ready();
+        }
+        run(ready);
+    }
+
+    @Override
+    public void onError(@NotNull final Throwable error) {
+        fail(error);
+    }
+
+    @Override
+    public void onComplete() {
+        final Runnable ready;
+        synchronized (this) {
+            done = true;
+            ready = ready();
+        }
+        run(ready);
+    }
+
+    @Override
+    public synchronized boolean isReady() {
+        return next != null || done || decode();
+    }
+
+    @Override
+    public void whenReady(@NotNull final Runnable callback) {
+        synchronized (this) {
+            if (!isReady()) {
+                this.callback = callback;
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (!isReady()) {
+            final long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                throw new UncheckedIOException(new IOException("Range timed out on " + node));
+            }
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new IOException("Interrupted", e));
+            }
+        }
+        if (next != null) {
+            return true;
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(new IOException("Range failed on " + node, failure));
+        }
+        if (start != end) {
+            throw new UncheckedIOException(new IOException("Truncated range from " + node));
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Record record = next;
+        next = null;
+        return record;
+    }
+
+    @Override
+    public void close() {
+        final Flow.Subscription cancelled;
+        synchronized (this) {
+            done = true;
+            callback = null;
+            cancelled = subscription;
+        }
+        if (cancelled != null) {
+            cancelled.cancel();
+        }
+    }
+
+    private void append(@NotNull final ByteBuffer buffer) {
+        final int length = buffer.remaining();
+        if (end + length > data.length) {
+            // Compact and grow for a record bigger than the prefetch
+            final int buffered = end - start;
+            final byte[] target = buffered + length > data.length
+                    ? new byte[Math.max(data.length * 2, buffered + length)]
+                    : data;
+            System.arraycopy(data, start, target, 0, buffered);
+            data = target;
+            start = 0;
+            end = buffered;
+        }
+        buffer.get(data, end, length);
+        end += length;
+    }
+
+    /**
+     * Decodes the next record if it has been received in full.
+     */
+    private boolean decode() {
+        if (next != null) {
+            return true;
+        }
+        final int buffered = end - start;
+        if (buffered < Integer.BYTES) {
+            return false;
+        }
+        final ByteBuffer header = ByteBuffer.wrap(data, start, buffered);
+        final int keyLength = header.getInt();
+        if (keyLength < 0 || buffered < Integer.BYTES * 2 + keyLength) {
+            return false;
+        }
+        final int valueLength = header.getInt(start + Integer.BYTES + keyLength);
+        final int size = Integer.BYTES * 2 + keyLength + valueLength;
+        if (valueLength < 0 || buffered < size) {
+            return false;
+        }
+        final int keyStart = start + Integer.BYTES;
+        final int valueStart = keyStart + keyLength + Integer.BYTES;
+        next = Record.of(
+                ByteBuffer.wrap(Arrays.copyOfRange(data, keyStart, keyStart + keyLength)),
+                ByteBuffer.wrap(Arrays.copyOfRange(data, valueStart, valueStart + valueLength)));
+        start += size;
+        requestMore();
+        return true;
+    }
+
+    private void requestMore() {
+        if (!requested && !done && subscription != null && end - start < prefetch) {
+            requested = true;
+            subscription.request(1);
+        }
+    }
+
+    /**
+     * Takes the callback to run outside of the lock and wakes up the blocked readers.
+     */
+    @Nullable
+    private Runnable ready() {
+        notifyAll();
+        final Runnable ready = callback;
+        callback = null;
+        return ready;
+    }
+
+    private static void run(@Nullable final Runnable ready) {
+        if (ready != null) {
+            ready.run();
+        }
+    }
+}
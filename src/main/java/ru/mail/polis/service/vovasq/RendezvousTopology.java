@@ -0,0 +1,181 @@
+package ru.mail.polis.service.vovasq;
+
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Weighted rendezvous (highest random weight) hashing.
+ *
+ * <p>Every node scores the key with {@code weight / -ln(u)}, where {@code u} is a uniform hash
+ * of the node and the key, and the key goes to the nodes with the highest scores. A node gets
+ * a share of the keys proportional to its weight, and a join or a leave moves only the keys
+ * won or lost by that node. Lookups allocate nothing: the key is hashed in place and
+ * the scores live in a per-thread scratch array.
+ */
+public class RendezvousTopology implements Topology<String> {
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    @NotNull
+    private final String me;
+    @NotNull
+    private final String[] nodes;
+    private final long[] seeds;
+    private final double[] weights;
+    private final ThreadLocal<double[]> scores;
+
+    /**
+     * Builds the topology, every node of the cluster must get the same weights.
+     *
+     * @param weights all the cluster nodes, including this one, with their positive weights
+     * @param me      this node
+     */
+    public RendezvousTopology(
+            @NotNull final Map<String, Double> weights,
+            @NotNull final String me) {
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("No nodes");
+        }
+        this.me = me;
+        this.nodes = weights.keySet().toArray(new String[0]);
+        Arrays.sort(this.nodes);
+        this.seeds = new long[nodes.length];
+        this.weights = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            final double weight = weights.get(nodes[i]);
+            if (!(weight > 0)) {
+                throw new IllegalArgumentException("Weight must be positive: " + nodes[i]);
+            }
+            this.weights[i] = weight;
+            this.seeds[i] = Hashing.murmur3_128().hashString(nodes[i], UTF_8).asLong();
+        }
+        this.scores = ThreadLocal.withInitial(() -> new double[nodes.length]);
+    }
+
+    @Override
+    public boolean isMe(@NotNull final String node) {
+        return node.equals(me);
+    }
+
+    @NotNull
+    @Override
+    public String primaryFor(@NotNull final ByteBuffer key) {
+        final long hash = hash(key);
+        int best = 0;
+        double bestScore = score(hash, 0);
+        for (int i = 1; i < nodes.length; i++) {
+            final double score = score(hash, i);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return nodes[best];
+    }
+
+    @NotNull
+    @Override
+    public List<String> replicasFor(@NotNull final ByteBuffer key, final int count) {
+        final String[] replicas = new String[count];
+        replicasFor(key, replicas);
+        return Arrays.asList(replicas);
+    }
+
+    @Override
+    public int replicasFor(@NotNull final ByteBuffer key, @NotNull final String[] replicas) {
+        if (replicas.length > nodes.length) {
+            throw new IllegalArgumentException("Not enough nodes: " + replicas.length);
+        }
+        final long hash = hash(key);
+        final double[] scratch = scores.get();
+        for (int i = 0; i < nodes.length; i++) {
+            scratch[i] = score(hash, i);
+        }
+        // Selection of the top scores, the replication factor is tiny compared to a sort
+        for (int rank = 0; rank < replicas.length; rank++) {
+            int best = -1;
+            for (int i = 0; i < nodes.length; i++) {
+                if (scratch[i] >= 0 && (best < 0 || scratch[i] > scratch[best])) {
+                    best = i;
+                }
+            }
+            replicas[rank] = nodes[best];
+            scratch[best] = -1;
+        }
+        return replicas.length;
+    }
+
+    @NotNull
+    @Override
+    public Set<String> all() {
+        return Set.of(nodes);
+    }
+
+    double weightOf(@NotNull final String node) {
+        final int index = Arrays.binarySearch(nodes, node);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown node: " + node);
+        }
+        return weights[index];
+    }
+
+    /**
+     * Keeps the weights of the known nodes, the new ones get weight {@code 1}.
+     */
+    @NotNull
+    @Override
+    public Topology<String> withNodes(@NotNull final Set<String> nodes) {
+        final Map<String, Double> weights = new HashMap<>();
+        for (final String node : nodes) {
+            final int index = Arrays.binarySearch(this.nodes, node);
+            weights.put(node, index >= 0 ? this.weights[index] : 1.0);
+        }
+        return new RendezvousTopology(weights, me);
+    }
+
+    private double score(final long keyHash, final int node) {
+        final long hash = mix(keyHash ^ seeds[node]);
+        // Top 53 bits to a uniform double in (0, 1)
+        final double uniform = ((hash >>> 11) + 0.5) / (1L << 53);
+        return weights[node] / -Math.log(uniform);
+    }
+
+    /**
+     * Hashes the remaining bytes of the key without moving its position.
+     */
+    private static long hash(@NotNull final ByteBuffer key) {
+        final int start = key.position();
+        final int end = key.limit();
+        long hash = end - start;
+        int i = start;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            hash = Long.rotateLeft(hash ^ mix(key.getLong(i)), 27) * MULTIPLIER;
+        }
+        long tail = 0;
+        for (; i < end; i++) {
+            tail = tail << 8 | key.get(i) & 0xFF;
+        }
+        return mix(hash ^ mix(tail));
+    }
+
+    /**
+     * Murmur3 64-bit finalizer.
+     */
+    private static long mix(final long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,160 @@
+package ru.mail.polis.service.vovasq;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Value;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static ru.mail.polis.util.Util.fromByteBufferToByteArray;
+
+/**
+ * Internal protocol between a coordinator and the replicas of a key.
+ *
+ * <p>Requests marked with {@link #PROXY_HEADER} are served by the replica itself.
+ * Writes carry the coordinator timestamp in {@link #TIMESTAMP_HEADER}, reads answer
+ * with the stored version so the coordinator resolves conflicts from the responses alone:
+ * {@code 200} with data, {@code 404} with {@link #TOMBSTONE_HEADER} for a removal or
+ * plain {@code 404} if the replica has never seen the key.
+ */
+final class ReplicaProtocol {
+    private static final String PROXY = "X-Proxied";
+    private static final String TIMESTAMP = "X-Timestamp";
+    private static final String TOMBSTONE = "X-Tombstone";
+
+    static final String PROXY_HEADER = PROXY + ": true";
+    static final String TIMESTAMP_HEADER = TIMESTAMP + ": ";
+    static final String TOMBSTONE_HEADER = TOMBSTONE + ": true";
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(1);
+    private static final byte[] NOT_FOUND = "No such a key".getBytes(UTF_8);
+
+    private ReplicaProtocol() {
+    }
+
+    static boolean isProxied(@NotNull final Request request) {
+        return request.getHeader(PROXY_HEADER) != null;
+    }
+
+    /**
+     * Returns coordinator timestamp of the write.
+     *
+     * @throws IllegalArgumentException if the header is missing or malformed
+     */
+    static long timestampOf(@NotNull final Request request) {
+        final String timestamp = request.getHeader(TIMESTAMP_HEADER);
+        if (timestamp == null) {
+            throw new IllegalArgumentException("No timestamp");
+        }
+        return Long.parseLong(timestamp.trim());
+    }
+
+    /**
+     * Builds a request to be served by the replica.
+     */
+    @NotNull
+    static HttpRequest request(
+            @NotNull final String node,
+            @NotNull final Request original,
+            final long timestamp) {
+        final HttpRequest.Builder builder = stamped(node, original.getURI(), timestamp);
+        switch (original.getMethod()) {
+            case Request.METHOD_GET:
+                return builder.GET().build();
+            case Request.METHOD_PUT:
+                final byte[] body = original.getBody();
+                return builder.PUT(HttpRequest.BodyPublishers.ofByteArray(body == null ? Response.EMPTY : body))
+                        .build();
+            case Request.METHOD_DELETE:
+                return builder.DELETE().build();
+            default:
+                throw new IllegalArgumentException("Unsupported method " + original.getMethod());
+        }
+    }
+
+    /**
+     * Starts a write to another node which must be served by the node itself with the coordinator timestamp.
+     */
+    @NotNull
+    static HttpRequest.Builder stamped(
+            @NotNull final String node,
+            @NotNull final String uri,
+            final long timestamp) {
+        return proxied(node, uri).header(TIMESTAMP, Long.toString(timestamp));
+    }
+
+    /**
+     * Starts a request to another node which must be served by the node itself.
+     */
+    @NotNull
+    static HttpRequest.Builder proxied(
+            @NotNull final String node,
+            @NotNull final String uri) {
+        return HttpRequest.newBuilder(URI.create(node + uri))
+                .timeout(TIMEOUT)
+                .header(PROXY, "true");
+    }
+
+    /**
+     * Answers a replica read with the stored version.
+     */
+    @NotNull
+    static Response response(@Nullable final Value value) {
+        if (value == null) {
+            return new Response(Response.NOT_FOUND, Response.EMPTY);
+        }
+        final Response response;
+        if (value.isTombstone()) {
+            response = new Response(Response.NOT_FOUND, Response.EMPTY);
+            response.addHeader(TOMBSTONE_HEADER);
+        } else {
+            response = new Response(Response.OK, fromByteBufferToByteArray(value.getData()));
+        }
+        response.addHeader(TIMESTAMP_HEADER + value.getTimestamp());
+        return response;
+    }
+
+    /**
+     * Parses replica read response.
+     *
+     * @return stored version or {@code null} if the replica has never seen the key
+     * @throws IOException if the replica failed
+     */
+    @Nullable
+    static Value parse(@NotNull final HttpResponse<byte[]> response) throws IOException {
+        final String timestamp = response.headers().firstValue(TIMESTAMP).orElse(null);
+        switch (response.statusCode()) {
+            case 200:
+                if (timestamp == null) {
+                    throw new IOException("Replica response without timestamp");
+                }
+                return Value.of(Long.parseLong(timestamp.trim()), ByteBuffer.wrap(response.body()));
+            case 404:
+                if (response.headers().firstValue(TOMBSTONE).isEmpty() || timestamp == null) {
+                    return null;
+                }
+                return Value.tombstone(Long.parseLong(timestamp.trim()));
+            default:
+                throw new IOException("Replica failed with " + response.statusCode());
+        }
+    }
+
+    /**
+     * Converts the freshest version to the client response.
+     */
+    @NotNull
+    static Response toClient(@Nullable final Value value) {
+        if (value == null || value.isTombstone()) {
+            return new Response(Response.NOT_FOUND, NOT_FOUND);
+        }
+        return new Response(Response.OK, fromByteBufferToByteArray(value.getData()));
+    }
+}
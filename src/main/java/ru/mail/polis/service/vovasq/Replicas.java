@@ -0,0 +1,65 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Replication factor {@code ack/from} of a request: the key is stored on
+ * {@code from} replicas and the client is answered once {@code ack} of them respond.
+ */
+final class Replicas {
+    private final int ack;
+    private final int from;
+
+    private Replicas(final int ack, final int from) {
+        this.ack = ack;
+        this.from = from;
+    }
+
+    /**
+     * Parses {@code replicas} request parameter, a quorum of the whole cluster by default.
+     *
+     * @throws IllegalArgumentException if the parameter is malformed or out of range
+     */
+    @NotNull
+    static Replicas parse(@Nullable final String replicas, final int clusterSize) {
+        if (replicas == null) {
+            return new Replicas(clusterSize / 2 + 1, clusterSize);
+        }
+        final int slash = replicas.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Expected ack/from: " + replicas);
+        }
+        final int ack = Integer.parseInt(replicas.substring(0, slash));
+        final int from = Integer.parseInt(replicas.substring(slash + 1));
+        if (ack < 1 || ack > from || from > clusterSize) {
+            throw new IllegalArgumentException("Wrong replication factor: " + replicas);
+        }
+        return new Replicas(ack, from);
+    }
+
+    int getAck() {
+        return ack;
+    }
+
+    int getFrom() {
+        return from;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Replicas)) {
+            return false;
+        }
+        final Replicas other = (Replicas) o;
+        return ack == other.ack && from == other.from;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * ack + from;
+    }
+}
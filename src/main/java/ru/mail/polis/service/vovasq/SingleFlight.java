@@ -0,0 +1,92 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key and variant: the first caller runs the call and
+ * the callers coming while it is in flight get its result, so a hot key costs one lookup at a time.
+ *
+ * <p>A call in flight may have started before a write the joining caller has already seen,
+ * so the writers {@link #forget(Object)} the calls of the keys written. The flights are indexed
+ * by the key, forgetting a key takes constant time whatever the number of the calls in flight.
+ *
+ * @param <K> key written and forgotten as a whole
+ * @param <S> variant of the call, the calls of a key in different variants are not shared
+ * @param <V> result of the call
+ */
+final class SingleFlight<K, S, V> {
+    private final Map<K, Map<S, CompletableFuture<V>>> flights = new ConcurrentHashMap<>();
+    private final LongAdder led = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+
+    /**
+     * Runs the call unless a call with the same key and variant is in flight.
+     *
+     * @return result shared by all the callers of the flight, don't complete it
+     */
+    @NotNull
+    CompletableFuture<V> run(
+            @NotNull final K key,
+            @NotNull final S variant,
+            @NotNull final Supplier<CompletableFuture<V>> call) {
+        final CompletableFuture<V> flight = new CompletableFuture<>();
+        // Racing with the removal of an empty variants map may leave the flight unindexed,
+        // then it is just not joined, as if forgotten
+        final Map<S, CompletableFuture<V>> variants = flights.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        final CompletableFuture<V> running = variants.putIfAbsent(variant, flight);
+        if (running != null) {
+            joined.increment();
+            return running;
+        }
+        led.increment();
+        final CompletableFuture<V> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            land(key, variants, variant, flight);
+            flight.completeExceptionally(e);
+            return flight;
+        }
+        result.whenComplete((value, error) -> {
+            // Landed before the callers are answered, so the next caller starts a new flight
+            land(key, variants, variant, flight);
+            if (error == null) {
+                flight.complete(value);
+            } else {
+                flight.completeExceptionally(error);
+            }
+        });
+        return flight;
+    }
+
+    private void land(
+            @NotNull final K key,
+            @NotNull final Map<S, CompletableFuture<V>> variants,
+            @NotNull final S variant,
+            @NotNull final CompletableFuture<V> flight) {
+        if (variants.remove(variant, flight) && variants.isEmpty()) {
+            flights.remove(key, variants);
+        }
+    }
+
+    /**
+     * Stops joining the calls in flight with the key, they still answer their callers.
+     */
+    void forget(@NotNull final K key) {
+        flights.remove(key);
+    }
+
+    long getLed() {
+        return led.sum();
+    }
+
+    long getJoined() {
+        return joined.sum();
+    }
+}
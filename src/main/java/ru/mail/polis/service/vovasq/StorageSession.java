@@ -5,83 +5,455 @@ import one.nio.http.HttpSession;
 import one.nio.http.Response;
 import one.nio.net.Socket;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.Cursor;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static ru.mail.polis.util.Util.fromByteBufferToByteArray;
 
+/**
+ * Session streaming {@link Record}s as a chunked response.
+ *
+ * <p>Records {@code <key>'\n'<value>} are copied from the {@link Cursor} views into pooled
+ * chunk buffers and a chunk is written once the buffer is filled up to {@link #CHUNK_SIZE}.
+ * The next chunk is built only after the previous one has left the socket,
+ * so a single buffer per stream is enough. Records of an {@link AsyncIterator}
+ * are packed only as they arrive, the stream goes on once the iterator is ready.
+ * Replicas stream their records framed in the {@link BatchFormat} layout instead.
+ *
+ * <p>The session also times the request being handled, see {@link #begin(Metrics.Timer)}.
+ */
 public class StorageSession extends HttpSession {
-
-    private static final byte[] CRLF = "\r\n".getBytes(UTF_8);
-    private static final byte[] LF = "\n".getBytes(UTF_8);
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final int POOL_SIZE = 64;
+    // Room for 8 hex digits of the chunk size and CRLF
+    static final int PAYLOAD_OFFSET = Integer.BYTES * 2 + 2;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
     private static final byte[] EMPTY_CHUNK = "0\r\n\r\n".getBytes(UTF_8);
+    // Leave room for the CRLF closing the chunk and for the last chunk
+    static final int PAYLOAD_LIMIT = CHUNK_SIZE - 2 - EMPTY_CHUNK.length;
+    private static final Queue<byte[]> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
 
-    private Iterator<Record> records;
+    private final LongAdder chunks;
+    private final LongAdder bytes;
+    private Source source;
+    private AsyncIterator<Record> async;
+    private boolean framed;
+    private boolean waiting;
+    // The source is at a record not packed yet
+    private boolean pending;
+    private boolean exhausted;
+    private byte[] chunk;
+    private boolean closed;
+    private Metrics.Timer timer;
+    private long started;
 
-    public StorageSession(final Socket socket, final HttpServer server) {
+    StorageSession(final Socket socket, final HttpServer server, @NotNull final Metrics metrics) {
         super(socket, server);
+        this.chunks = metrics.counter("stream.chunks");
+        this.bytes = metrics.counter("stream.bytes");
+    }
+
+    /**
+     * Starts timing the request till its response is sent or streamed.
+     */
+    void begin(@NotNull final Metrics.Timer timer) {
+        this.timer = timer;
+        this.started = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void sendResponse(final Response response) throws IOException {
+        // Before the next pipelined request starts its own timing
+        done();
+        super.sendResponse(response);
     }
 
-    void stream(@NotNull final Iterator<Record> records) throws IOException {
-        this.records = records;
+    private void done() {
+        if (timer != null) {
+            timer.recordSince(started);
+            timer = null;
+        }
+    }
+
+    /**
+     * Streams the records as chunked response and closes the iterator when done
+     * or when the session is closed.
+     */
+    synchronized void stream(@NotNull final CloseableIterator<Record> records) throws IOException {
+        stream(new RecordSource(records), asyncOf(records), false);
+    }
+
+    /**
+     * Streams the records of the cursor already positioned by the caller, closes the cursor when done.
+     */
+    synchronized void stream(@NotNull final Cursor cursor) throws IOException {
+        stream(new CursorSource(cursor), null, false);
+    }
+
+    /**
+     * Streams the records as {@link #stream(CloseableIterator)} does, framed in the {@link BatchFormat} layout.
+     */
+    synchronized void streamFramed(@NotNull final CloseableIterator<Record> records) throws IOException {
+        stream(new RecordSource(records), asyncOf(records), true);
+    }
+
+    @Nullable
+    private static AsyncIterator<Record> asyncOf(@NotNull final CloseableIterator<Record> records) {
+        return records instanceof AsyncIterator ? (AsyncIterator<Record>) records : null;
+    }
+
+    private void stream(
+            @NotNull final Source source,
+            @Nullable final AsyncIterator<Record> async,
+            final boolean framed) throws IOException {
+        if (closed) {
+            source.close();
+            return;
+        }
+        this.source = source;
+        this.async = async;
+        this.framed = framed;
         final Response response = new Response(Response.OK);
         response.addHeader("Transfer-Encoding: chunked");
         writeResponse(response, false);
-        next();
+        try {
+            next();
+        } catch (UncheckedIOException e) {
+            // The response has started, only a broken connection tells the client the stream is incomplete
+            log.error("Can't stream records", e);
+            close();
+        }
     }
 
     @Override
-    protected void processWrite() throws Exception {
+    protected synchronized void processWrite() throws Exception {
         super.processWrite();
-        next();
-    }
-
-    private byte[] buildChunk() {
-        final Record record = records.next();
-        final byte[] key = fromByteBufferToByteArray(record.getKey());
-        final byte[] value = fromByteBufferToByteArray(record.getValue());
-//            <key>'\n'<value>
-        final int payloadLength = key.length + 1 + value.length;
-        final String size = Integer.toHexString(payloadLength);
-        // <size>\r\n<payload>\r\n
-        final int chunkLength = size.length() + 2 + payloadLength + 2;
-        final byte[] chunk = new byte[chunkLength];
-        final ByteBuffer buffer = ByteBuffer.wrap(chunk);
-        buffer.put(size.getBytes(UTF_8));
-        buffer.put(CRLF);
-        buffer.put(key);
-        buffer.put(LF);
-        buffer.put(value);
-        buffer.put(CRLF);
-        return chunk;
+        if (source != null) {
+            next();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        release();
+        super.close();
+    }
+
+    private void release() {
+        if (source != null) {
+            source.close();
+            source = null;
+        }
+        async = null;
+        pending = false;
+        exhausted = false;
+        // A buffer still queued for the socket must not be handed out again
+        if (chunk != null && queueHead == null) {
+            POOL.offer(chunk);
+        }
+        chunk = null;
     }
 
     private void next() throws IOException {
+        if (chunk == null) {
+            final byte[] pooled = POOL.poll();
+            chunk = pooled == null ? new byte[CHUNK_SIZE] : pooled;
+        }
+        while (queueHead == null) {
+            final int end = fill();
+            if (waiting) {
+                // Send what has arrived so far
+                if (end > PAYLOAD_OFFSET) {
+                    writeChunk(end, false);
+                }
+                async.whenReady(this::resume);
+                return;
+            }
+            if (end == PAYLOAD_OFFSET && !exhausted) {
+                writeSingle();
+                pending = false;
+                continue;
+            }
+            writeChunk(end, exhausted);
+            if (exhausted) {
+                finish();
+                return;
+            }
+        }
+    }
+
+    private synchronized void resume() {
+        if (source == null) {
+            return;
+        }
+        try {
+            next();
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Can't stream records", e);
+            close();
+        }
+    }
+
+    /**
+     * Packs records into the chunk buffer while they fit and have arrived.
+     *
+     * @return end of the payload
+     */
+    private int fill() {
+        waiting = false;
+        int position = PAYLOAD_OFFSET;
+        while (true) {
+            if (!pending) {
+                if (async != null && !async.isReady()) {
+                    waiting = true;
+                    return position;
+                }
+                if (!source.next()) {
+                    exhausted = true;
+                    return position;
+                }
+                pending = true;
+            }
+            final int end = framed
+                    ? packFramed(chunk, position, PAYLOAD_LIMIT, source.key(), source.value())
+                    : pack(chunk, position, PAYLOAD_LIMIT, source.key(), source.value());
+            if (end < 0) {
+                return position;
+            }
+            position = end;
+            pending = false;
+        }
+    }
 
-        while (records.hasNext() && queueHead == null) {
-            final byte[] chunk = buildChunk();
-            write(chunk, 0, chunk.length);
+    /**
+     * Copies {@code <key>'\n'<value>} to the buffer if it fits before the limit.
+     *
+     * @return end of the record or {@code -1} if the record doesn't fit
+     */
+    static int pack(
+            @NotNull final byte[] buffer,
+            final int position,
+            final int limit,
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        final int keyLength = key.remaining();
+        final int valueLength = value.remaining();
+        if (position + keyLength + 1 + valueLength > limit) {
+            return -1;
         }
-        if (!records.hasNext()) {
-            write(EMPTY_CHUNK, 0, EMPTY_CHUNK.length);
+        key.get(buffer, position, keyLength);
+        buffer[position + keyLength] = '\n';
+        value.get(buffer, position + keyLength + 1, valueLength);
+        return position + keyLength + 1 + valueLength;
+    }
+
+    /**
+     * Copies {@code [key length][key][value length][value]} to the buffer if it fits before the limit.
+     *
+     * @return end of the record or {@code -1} if the record doesn't fit
+     */
+    static int packFramed(
+            @NotNull final byte[] buffer,
+            final int position,
+            final int limit,
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        final int keyLength = key.remaining();
+        final int valueLength = value.remaining();
+        final int end = position + Integer.BYTES * 2 + keyLength + valueLength;
+        if (end > limit) {
+            return -1;
+        }
+        ByteBuffer.wrap(buffer, position, end - position)
+                .putInt(keyLength)
+                .put(key)
+                .putInt(valueLength)
+                .put(value);
+        return end;
+    }
+
+    /**
+     * Writes {@code <size>\r\n<payload>\r\n} followed by the last chunk if the stream is over.
+     */
+    private void writeChunk(final int end, final boolean last) throws IOException {
+        final int payload = end - PAYLOAD_OFFSET;
+        int position = end;
+        int start = PAYLOAD_OFFSET;
+        if (payload > 0) {
+            start = writeSize(chunk, PAYLOAD_OFFSET, payload);
+            chunk[position++] = '\r';
+            chunk[position++] = '\n';
+        }
+        if (last) {
+            System.arraycopy(EMPTY_CHUNK, 0, chunk, position, EMPTY_CHUNK.length);
+            position += EMPTY_CHUNK.length;
+        }
+        if (payload > 0) {
+            chunks.increment();
+            bytes.add(payload);
+        }
+        write(chunk, start, position - start);
+    }
 
-            server.incRequestsProcessed();
+    /**
+     * Writes a record too big for the pooled buffer as a separate chunk.
+     */
+    private void writeSingle() throws IOException {
+        final ByteBuffer key = source.key();
+        final ByteBuffer value = source.value();
+        final int payload = key.remaining() + value.remaining() + (framed ? Integer.BYTES * 2 : 1);
+        final byte[] single = new byte[PAYLOAD_OFFSET + payload + 2];
+        final int start = writeSize(single, PAYLOAD_OFFSET, payload);
+        if (framed) {
+            packFramed(single, PAYLOAD_OFFSET, PAYLOAD_OFFSET + payload, key, value);
+        } else {
+            pack(single, PAYLOAD_OFFSET, PAYLOAD_OFFSET + payload, key, value);
+        }
+        single[single.length - 2] = '\r';
+        single[single.length - 1] = '\n';
+        chunks.increment();
+        bytes.add(payload);
+        write(single, start, single.length - start);
+    }
 
-            if ((handling = pipeline.pollFirst()) != null) {
-                if (handling == FIN) {
-                    scheduleClose();
-                } else {
-                    try {
-                        server.handleRequest(handling, this);
-                    } catch (IOException e) {
-                        log.error("Can't proccess next request: " + handling, e);
-                    }
+    /**
+     * Writes hex size and CRLF right before the payload.
+     *
+     * @return start of the chunk
+     */
+    static int writeSize(
+            @NotNull final byte[] buffer,
+            final int payloadOffset,
+            final int size) {
+        int position = payloadOffset;
+        buffer[--position] = '\n';
+        buffer[--position] = '\r';
+        int rest = size;
+        do {
+            buffer[--position] = HEX[rest & 0xF];
+            rest >>>= 4;
+        } while (rest != 0);
+        return position;
+    }
+
+    private void finish() {
+        release();
+        done();
+
+        server.incRequestsProcessed();
+
+        if ((handling = pipeline.pollFirst()) != null) {
+            if (handling == FIN) {
+                scheduleClose();
+            } else {
+                try {
+                    server.handleRequest(handling, this);
+                } catch (IOException e) {
+                    log.error("Can't proccess next request: " + handling, e);
                 }
             }
         }
     }
+
+    /**
+     * Records being streamed, a {@link Cursor} that the session never seeks.
+     * The key and the value are read only after {@link #next()} returned {@code true}.
+     */
+    private interface Source {
+        /**
+         * Moves to the next record.
+         *
+         * @return {@code false} if there are no more records
+         */
+        boolean next();
+
+        /**
+         * Returns the key of the current record, valid till the next move.
+         */
+        @NotNull
+        ByteBuffer key();
+
+        /**
+         * Returns the value of the current record, valid till the next move.
+         */
+        @NotNull
+        ByteBuffer value();
+
+        void close();
+    }
+
+    private static final class CursorSource implements Source {
+        private final Cursor cursor;
+
+        CursorSource(@NotNull final Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean next() {
+            return cursor.next();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return cursor.key();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            return cursor.value();
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    private static final class RecordSource implements Source {
+        private final CloseableIterator<Record> records;
+        private Record current;
+
+        RecordSource(@NotNull final CloseableIterator<Record> records) {
+            this.records = records;
+        }
+
+        @Override
+        public boolean next() {
+            if (!records.hasNext()) {
+                return false;
+            }
+            current = records.next();
+            return true;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return current.getKey();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            return current.getValue();
+        }
+
+        @Override
+        public void close() {
+            records.close();
+        }
+    }
 }
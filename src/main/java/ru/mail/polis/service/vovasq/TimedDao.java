@@ -0,0 +1,211 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.Cursor;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Mutation;
+import ru.mail.polis.dao.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link DAO} decorator recording latencies of the storage operations to {@link Metrics}.
+ * Iterators are timed till they are opened, consuming them is up to the caller.
+ */
+final class TimedDao implements DAO {
+    private final DAO delegate;
+    private final Metrics.Timer get;
+    private final Metrics.Timer getAll;
+    private final Metrics.Timer upsert;
+    private final Metrics.Timer remove;
+    private final Metrics.Timer apply;
+    private final Metrics.Timer iterator;
+
+    TimedDao(
+            @NotNull final DAO delegate,
+            @NotNull final Metrics metrics) {
+        this.delegate = delegate;
+        this.get = metrics.timer("dao.get");
+        this.getAll = metrics.timer("dao.getAll");
+        this.upsert = metrics.timer("dao.upsert");
+        this.remove = metrics.timer("dao.remove");
+        this.apply = metrics.timer("dao.apply");
+        this.iterator = metrics.timer("dao.iterator");
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return delegate.iterator(from);
+        } finally {
+            iterator.recordSince(start);
+        }
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return delegate.range(from, to);
+        } finally {
+            iterator.recordSince(start);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Cursor cursor() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return delegate.cursor();
+        } finally {
+            iterator.recordSince(start);
+        }
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> versionedIterator(@NotNull final ByteBuffer from) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return delegate.versionedIterator(from);
+        } finally {
+            iterator.recordSince(start);
+        }
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final long start = System.nanoTime();
+        try {
+            return delegate.get(key);
+        } finally {
+            get.recordSince(start);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Value getVersioned(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final long start = System.nanoTime();
+        try {
+            return delegate.getVersioned(key);
+        } finally {
+            get.recordSince(start);
+        }
+    }
+
+    @NotNull
+    @Override
+    public List<ByteBuffer> getAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return delegate.getAll(keys);
+        } finally {
+            getAll.recordSince(start);
+        }
+    }
+
+    @NotNull
+    @Override
+    public List<Value> getAllVersioned(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return delegate.getAllVersioned(keys);
+        } finally {
+            getAll.recordSince(start);
+        }
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long timestamp) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.upsert(key, value, timestamp);
+        } finally {
+            upsert.recordSince(start);
+        }
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.upsert(key, value);
+        } finally {
+            upsert.recordSince(start);
+        }
+    }
+
+    @Override
+    public void remove(
+            @NotNull final ByteBuffer key,
+            final long timestamp) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.remove(key, timestamp);
+        } finally {
+            remove.recordSince(start);
+        }
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.remove(key);
+        } finally {
+            remove.recordSince(start);
+        }
+    }
+
+    @Override
+    public void apply(
+            @NotNull final Iterable<Mutation> mutations,
+            final long timestamp) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.apply(mutations, timestamp);
+        } finally {
+            apply.recordSince(start);
+        }
+    }
+
+    @Override
+    public void apply(@NotNull final Iterable<Mutation> mutations) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.apply(mutations);
+        } finally {
+            apply.recordSince(start);
+        }
+    }
+
+    @Override
+    public void compact() throws IOException {
+        delegate.compact();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -3,6 +3,7 @@ package ru.mail.polis.service.vovasq;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Set;
 
 public interface Topology<T> {
@@ -12,7 +13,34 @@ public interface Topology<T> {
     @NotNull
     T primaryFor(@NotNull ByteBuffer key);
 
+    /**
+     * Returns {@code count} distinct nodes storing the key, the primary one goes first.
+     * Every node of the cluster returns the same list for the same key.
+     */
+    @NotNull
+    List<T> replicasFor(@NotNull ByteBuffer key, int count);
+
+    /**
+     * Fills the array with the nodes storing the key in the order of {@link #replicasFor(ByteBuffer, int)}.
+     * Implementations may do it without allocation.
+     *
+     * @return number of the nodes written
+     */
+    default int replicasFor(@NotNull ByteBuffer key, @NotNull T[] replicas) {
+        final List<T> list = replicasFor(key, replicas.length);
+        for (int i = 0; i < replicas.length; i++) {
+            replicas[i] = list.get(i);
+        }
+        return replicas.length;
+    }
+
     @NotNull
     Set<T> all();
 
+    /**
+     * Builds the same kind of topology over another set of nodes as seen by this node.
+     */
+    @NotNull
+    Topology<T> withNodes(@NotNull Set<T> nodes);
+
 }
@@ -0,0 +1,112 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Text body of {@code GET /v0/topology}, enough for a client to place the keys by itself.
+ *
+ * <pre>
+ * epoch &lt;number&gt;
+ * ring &lt;virtual nodes&gt; | rendezvous | basic
+ * &lt;node&gt; [&lt;weight&gt;]
+ * ...
+ * </pre>
+ * The epoch grows with every committed membership change.
+ */
+final class TopologyFormat {
+    static final String EPOCH_HEADER = "X-Topology-Epoch";
+
+    private static final String EPOCH = "epoch";
+    private static final String RING = "ring";
+    private static final String RENDEZVOUS = "rendezvous";
+    private static final String BASIC = "basic";
+
+    private TopologyFormat() {
+    }
+
+    @NotNull
+    static String encode(
+            @NotNull final Topology<String> topology,
+            final long epoch) {
+        final StringBuilder text = new StringBuilder();
+        text.append(EPOCH).append(' ').append(epoch).append('\n');
+        if (topology instanceof ConsistentHashTopology) {
+            text.append(RING).append(' ').append(((ConsistentHashTopology) topology).getVirtualNodes());
+        } else if (topology instanceof RendezvousTopology) {
+            text.append(RENDEZVOUS);
+        } else {
+            text.append(BASIC);
+        }
+        text.append('\n');
+        for (final String node : new TreeSet<>(topology.all())) {
+            text.append(node);
+            if (topology instanceof RendezvousTopology) {
+                text.append(' ').append(((RendezvousTopology) topology).weightOf(node));
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parses the epoch of the topology.
+     *
+     * @throws IllegalArgumentException if the text is malformed
+     */
+    static long epochOf(@NotNull final String text) {
+        final String[] epoch = lines(text)[0].split(" ");
+        if (epoch.length != 2 || !EPOCH.equals(epoch[0])) {
+            throw new IllegalArgumentException("No epoch");
+        }
+        return Long.parseLong(epoch[1]);
+    }
+
+    /**
+     * Rebuilds the topology as seen by the given node, pass a node out of the cluster for a client.
+     *
+     * @throws IllegalArgumentException if the text is malformed
+     */
+    @NotNull
+    static Topology<String> decode(
+            @NotNull final String text,
+            @NotNull final String me) {
+        final String[] lines = lines(text);
+        if (lines.length < 3) {
+            throw new IllegalArgumentException("No nodes");
+        }
+        final String[] kind = lines[1].split(" ");
+        final Map<String, Double> weights = new HashMap<>();
+        for (int i = 2; i < lines.length; i++) {
+            final String[] node = lines[i].split(" ");
+            weights.put(node[0], node.length > 1 ? Double.parseDouble(node[1]) : 1.0);
+        }
+        final Set<String> nodes = weights.keySet();
+        switch (kind[0]) {
+            case RING:
+                if (kind.length != 2) {
+                    throw new IllegalArgumentException("No virtual nodes");
+                }
+                return new ConsistentHashTopology(nodes, me, Integer.parseInt(kind[1]));
+            case RENDEZVOUS:
+                return new RendezvousTopology(weights, me);
+            case BASIC:
+                return new BasicTopology(nodes, me);
+            default:
+                throw new IllegalArgumentException("Unknown topology " + kind[0]);
+        }
+    }
+
+    @NotNull
+    private static String[] lines(@NotNull final String text) {
+        final String[] lines = text.trim().split("\n");
+        if (lines[0].isEmpty()) {
+            throw new IllegalArgumentException("Empty topology");
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,41 @@
+package ru.mail.polis.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hybrid logical clock in microseconds used to version stored values.
+ *
+ * <p>Timestamps follow the wall clock, never go backwards and always exceed
+ * every timestamp {@link #observe(long) observed} from other nodes.
+ */
+public final class Clock {
+
+    private static final AtomicLong last = new AtomicLong();
+
+    private Clock() {
+    }
+
+    /**
+     * function returns current timestamp, strictly increasing between calls.
+     * @return current timestamp
+     */
+    public static long currentTimeMicros() {
+        final long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        while (true) {
+            final long prev = last.get();
+            final long next = Math.max(now, prev + 1);
+            if (last.compareAndSet(prev, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * function moves the clock forward past the timestamp received from another node.
+     * @param timestamp remote timestamp
+     */
+    public static void observe(final long timestamp) {
+        last.accumulateAndGet(timestamp, Math::max);
+    }
+}
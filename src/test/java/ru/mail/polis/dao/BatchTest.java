@@ -0,0 +1,183 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.util.Clock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for batched writes and reads of every {@link DAO} engine, with and without the row cache.
+ */
+class BatchTest extends TestBase {
+    @Test
+    void applyMixesUpsertsAndRemoves(@TempDir File data) throws IOException {
+        for (final StorageConfig config : configs()) {
+            final ByteBuffer kept = randomKeyBuffer();
+            final ByteBuffer keptValue = randomValueBuffer();
+            final ByteBuffer removed = randomKeyBuffer();
+            final ByteBuffer overwritten = randomKeyBuffer();
+            final ByteBuffer overwrittenValue = randomValueBuffer();
+            final ByteBuffer resurrected = randomKeyBuffer();
+            final ByteBuffer resurrectedValue = randomValueBuffer();
+            try (DAO dao = DAOFactory.create(folder(data, config), config)) {
+                dao.upsert(removed, randomValueBuffer());
+                dao.upsert(overwritten, randomValueBuffer());
+                // Read before the batch, so that a row cache has to notice it
+                assertNotNull(dao.get(removed));
+
+                dao.apply(Arrays.asList(
+                        Mutation.upsert(kept, keptValue),
+                        Mutation.remove(removed),
+                        Mutation.upsert(overwritten, overwrittenValue),
+                        Mutation.upsert(resurrected, randomValueBuffer()),
+                        Mutation.remove(resurrected),
+                        Mutation.upsert(resurrected, resurrectedValue)));
+
+                assertEquals(keptValue, dao.get(kept), config.getEngine().name());
+                assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+                assertEquals(overwrittenValue, dao.get(overwritten));
+                assertEquals(resurrectedValue, dao.get(resurrected));
+                assertTrue(dao.getVersioned(removed).isTombstone());
+            }
+        }
+    }
+
+    @Test
+    void applyKeepsFresherVersions(@TempDir File data) throws IOException {
+        final long future = Clock.currentTimeMicros() + TimeUnit.HOURS.toMicros(1);
+        for (final StorageConfig config : configs()) {
+            final ByteBuffer upserted = randomKeyBuffer();
+            final ByteBuffer upsertedValue = randomValueBuffer();
+            final ByteBuffer removed = randomKeyBuffer();
+            try (DAO dao = DAOFactory.create(folder(data, config), config)) {
+                dao.upsert(upserted, upsertedValue, future);
+                dao.remove(removed, future);
+
+                dao.apply(Arrays.asList(
+                        Mutation.remove(upserted),
+                        Mutation.upsert(removed, randomValueBuffer())));
+
+                assertEquals(upsertedValue, dao.get(upserted), config.getEngine().name());
+                assertEquals(future, dao.getVersioned(upserted).getTimestamp());
+                assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+            }
+        }
+    }
+
+    @Test
+    void applyStampsTheBatch(@TempDir File data) throws IOException {
+        final long timestamp = Clock.currentTimeMicros();
+        for (final StorageConfig config : configs()) {
+            final ByteBuffer upserted = randomKeyBuffer();
+            final ByteBuffer upsertedValue = randomValueBuffer();
+            final ByteBuffer removed = randomKeyBuffer();
+            final ByteBuffer absent = randomKeyBuffer();
+            try (DAO dao = DAOFactory.create(folder(data, config), config)) {
+                dao.apply(Arrays.asList(
+                        Mutation.remove(upserted),
+                        Mutation.upsert(upserted, upsertedValue),
+                        Mutation.remove(removed)), timestamp);
+
+                final List<Value> values = dao.getAllVersioned(Arrays.asList(upserted, absent, removed));
+                assertEquals(timestamp, values.get(0).getTimestamp(), config.getEngine().name());
+                assertEquals(upsertedValue, values.get(0).getData());
+                assertNull(values.get(1));
+                assertTrue(values.get(2).isTombstone());
+                assertEquals(timestamp, values.get(2).getTimestamp());
+            }
+        }
+    }
+
+    @Test
+    void applyEmpty(@TempDir File data) throws IOException {
+        for (final StorageConfig config : configs()) {
+            try (DAO dao = DAOFactory.create(folder(data, config), config)) {
+                dao.apply(List.of());
+                try (CloseableIterator<Record> records = dao.iterator(ByteBuffer.allocate(0))) {
+                    assertFalse(records.hasNext());
+                }
+            }
+        }
+    }
+
+    @Test
+    void getAllKeepsKeyOrder(@TempDir File data) throws IOException {
+        for (final StorageConfig config : configs()) {
+            final ByteBuffer first = randomKeyBuffer();
+            final ByteBuffer firstValue = randomValueBuffer();
+            final ByteBuffer absent = randomKeyBuffer();
+            final ByteBuffer removed = randomKeyBuffer();
+            final ByteBuffer last = randomKeyBuffer();
+            final ByteBuffer lastValue = randomValueBuffer();
+            try (DAO dao = DAOFactory.create(folder(data, config), config)) {
+                dao.upsert(first, firstValue);
+                dao.upsert(removed, randomValueBuffer());
+                dao.upsert(last, lastValue);
+                // Cached before the removal, so that a row cache has to notice it
+                assertNotNull(dao.get(removed));
+                dao.remove(removed);
+
+                final List<ByteBuffer> values = dao.getAll(Arrays.asList(last, absent, removed, first, last));
+                assertEquals(Arrays.asList(lastValue, null, null, firstValue, lastValue), values,
+                        config.getEngine().name());
+            }
+        }
+    }
+
+    @Test
+    void getAllSeesFlushedData(@TempDir File data) throws IOException {
+        for (final StorageConfig config : configs()) {
+            final ByteBuffer flushed = randomKeyBuffer();
+            final ByteBuffer flushedValue = randomValueBuffer();
+            final ByteBuffer fresh = randomKeyBuffer();
+            final ByteBuffer freshValue = randomValueBuffer();
+            final File folder = folder(data, config);
+            try (DAO dao = DAOFactory.create(folder, config)) {
+                dao.upsert(flushed, flushedValue);
+            }
+            try (DAO dao = DAOFactory.create(folder, config)) {
+                dao.upsert(fresh, freshValue);
+                assertEquals(Arrays.asList(flushedValue, freshValue), dao.getAll(Arrays.asList(flushed, fresh)));
+                assertTrue(dao.getAll(List.of()).isEmpty());
+            }
+        }
+    }
+
+    /**
+     * Returns every engine with and without the row cache.
+     */
+    @NotNull
+    static List<StorageConfig> configs() {
+        final List<StorageConfig> configs = new ArrayList<>();
+        for (final DAOFactory.Engine engine : DAOFactory.Engine.values()) {
+            final StorageConfig.Builder builder = StorageConfig.builder(StorageConfig.Profile.DEFAULT).engine(engine);
+            configs.add(builder.rowCacheSize(0).build());
+            configs.add(builder.rowCacheSize(1024 * 1024).build());
+        }
+        return configs;
+    }
+
+    @NotNull
+    static File folder(
+            @NotNull final File data,
+            @NotNull final StorageConfig config) throws IOException {
+        final File folder = new File(data, config.getEngine() + "-" + config.getRowCacheSize());
+        if (!folder.mkdir()) {
+            throw new IOException("Can't create " + folder);
+        }
+        return folder;
+    }
+}
@@ -0,0 +1,74 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Unit tests for {@link DAO#cursor()}.
+ */
+class CursorTest extends TestBase {
+    @Test
+    void scansLiveRecordsOfRange(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final String key : Arrays.asList("a", "b", "c", "d", "e")) {
+                dao.upsert(buffer(key), buffer("value-" + key));
+            }
+            dao.remove(buffer("c"));
+            try (Cursor cursor = dao.cursor()) {
+                cursor.seek(buffer("b"), buffer("e"));
+                assertEquals(Arrays.asList("b=value-b", "d=value-d"), drain(cursor));
+                assertFalse(cursor.next());
+
+                // The cursor is reusable
+                cursor.seek(buffer("a"), null);
+                assertEquals(Arrays.asList("a=value-a", "b=value-b", "d=value-d", "e=value-e"), drain(cursor));
+
+                cursor.seek(buffer("e"), buffer("a"));
+                assertFalse(cursor.next());
+            }
+        }
+    }
+
+    @Test
+    void viewsFollowRecordSizes(@TempDir File data) throws IOException {
+        final byte[] big = new byte[100_000];
+        Arrays.fill(big, (byte) 'x');
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(buffer("a"), buffer("small"));
+            dao.upsert(buffer("b"), ByteBuffer.wrap(big));
+            dao.upsert(buffer("c"), ByteBuffer.allocate(0));
+            try (Cursor cursor = dao.cursor()) {
+                cursor.seek(buffer("a"), null);
+                final List<Integer> sizes = new ArrayList<>();
+                while (cursor.next()) {
+                    sizes.add(cursor.value().remaining());
+                }
+                assertEquals(Arrays.asList(5, big.length, 0), sizes);
+            }
+        }
+    }
+
+    private static ByteBuffer buffer(final String text) {
+        return ByteBuffer.wrap(text.getBytes(UTF_8));
+    }
+
+    private static List<String> drain(final Cursor cursor) {
+        final List<String> records = new ArrayList<>();
+        while (cursor.next()) {
+            records.add(UTF_8.decode(cursor.key()) + "=" + UTF_8.decode(cursor.value()));
+        }
+        return records;
+    }
+}
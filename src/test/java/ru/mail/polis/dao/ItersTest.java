@@ -20,6 +20,11 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import org.junit.jupiter.api.Test;
 
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 
@@ -55,4 +60,47 @@ class ItersTest {
                 ImmutableList.of(1, 2, 3, 5, 6),
                 ImmutableList.copyOf(collapsed));
     }
+
+    @Test
+    void merge() {
+        assertFalse(Iters.merge(ImmutableList.of(), Comparator.naturalOrder()).hasNext());
+
+        final List<Iterator<Integer>> iters = ImmutableList.of(
+                ImmutableList.of(1, 4, 7).iterator(),
+                Iters.<Integer>empty(),
+                ImmutableList.of(2, 4, 8, 9).iterator(),
+                ImmutableList.of(3, 4, 7).iterator());
+        assertEquals(
+                ImmutableList.of(1, 2, 3, 4, 7, 8, 9),
+                ImmutableList.copyOf(Iters.merge(iters, Comparator.naturalOrder())));
+    }
+
+    @Test
+    void mergeResolvesDuplicates() {
+        // Compared by the tens, the source order and the resolver decide which one is left
+        final Comparator<Integer> tens = Comparator.comparing(i -> i / 10);
+        assertEquals(
+                ImmutableList.of(11, 25, 31),
+                ImmutableList.copyOf(Iters.merge(ImmutableList.of(
+                        ImmutableList.of(11, 31).iterator(),
+                        ImmutableList.of(15, 25, 35).iterator()), tens)));
+        assertEquals(
+                ImmutableList.of(15, 25, 35),
+                ImmutableList.copyOf(Iters.merge(ImmutableList.of(
+                        ImmutableList.of(11, 31).iterator(),
+                        ImmutableList.of(15, 25, 35).iterator()), tens, Math::max)));
+    }
+
+    @Test
+    void closeable() {
+        final AtomicInteger released = new AtomicInteger();
+        final CloseableIterator<Integer> iter =
+                Iters.closeable(ImmutableList.of(1, 2).iterator(), released::incrementAndGet);
+        assertEquals(2, Iterators.size(iter));
+        assertEquals(0, released.get());
+
+        iter.close();
+        iter.close();
+        assertEquals(1, released.get());
+    }
 }
@@ -0,0 +1,175 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Functional tests for {@link LsmDao} flushes and compaction.
+ */
+class LsmDaoTest extends TestBase {
+    private static final long FLUSH_THRESHOLD = 64 * 1024;
+
+    @Test
+    void flushAndReopen(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKeyBuffer();
+                final ByteBuffer value = randomValueBuffer();
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+        }
+        assertTrue(data.list().length > 1);
+
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            assertContains(dao, expected);
+        }
+    }
+
+    @Test
+    void removeShadowsFlushedValue(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            dao.upsert(key, randomValueBuffer());
+        }
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            dao.remove(key);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+        }
+    }
+
+    @Test
+    void compactMergesGenerations(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKeyBuffer();
+                dao.upsert(key, randomValueBuffer());
+                if (i % 2 == 0) {
+                    dao.remove(key);
+                } else {
+                    final ByteBuffer value = randomValueBuffer();
+                    dao.upsert(key, value);
+                    expected.put(key, value);
+                }
+            }
+            dao.compact();
+            assertEquals(1, data.list().length);
+            assertContains(dao, expected);
+        }
+    }
+
+    @Test
+    void compactionKeepsTombstones(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            // Two generations, so that compaction rewrites the tables
+            dao.upsert(randomKeyBuffer(), randomValueBuffer());
+            dao.compact();
+            dao.remove(key, 2);
+            dao.compact();
+            assertEquals(1, data.list().length);
+
+            // A late write older than the tombstone
+            dao.upsert(key, randomValueBuffer(), 1);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            assertEquals(2, dao.getVersioned(key).getTimestamp());
+        }
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            dao.compact();
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void compactionDropsTombstonesAfterGrace(@TempDir File data) throws IOException {
+        final ByteBuffer old = randomKeyBuffer();
+        final ByteBuffer recent = randomKeyBuffer();
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD, TimeUnit.HOURS.toMillis(1))) {
+            dao.upsert(randomKeyBuffer(), randomValueBuffer());
+            dao.compact();
+            dao.remove(old, 2);
+            dao.remove(recent);
+            dao.compact();
+            assertThrows(NoSuchElementException.class, () -> dao.getVersioned(old));
+            assertTrue(dao.getVersioned(recent).isTombstone());
+        }
+    }
+
+    @Test
+    void replaysUnflushedWrites(@TempDir File data) throws IOException {
+        final ByteBuffer kept = randomKeyBuffer();
+        final ByteBuffer keptValue = randomValueBuffer();
+        final ByteBuffer removed = randomKeyBuffer();
+        final ByteBuffer batched = randomKeyBuffer();
+        final ByteBuffer batchedValue = randomValueBuffer();
+        // Never closed, as if the process crashed
+        final DAO crashed = new LsmDao(data, FLUSH_THRESHOLD);
+        crashed.upsert(removed, randomValueBuffer());
+        crashed.upsert(kept, keptValue);
+        crashed.remove(removed);
+        crashed.apply(Arrays.asList(Mutation.upsert(batched, batchedValue), Mutation.remove(kept)));
+        crashed.upsert(kept, keptValue);
+
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            assertEquals(keptValue, dao.get(kept));
+            assertTrue(dao.getVersioned(removed).isTombstone());
+            assertEquals(batchedValue, dao.get(batched));
+        }
+        for (final String name : data.list()) {
+            assertFalse(name.endsWith(".log"), name);
+        }
+    }
+
+    @Test
+    void replayStopsAtTornEntry(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        final DAO crashed = new LsmDao(data, FLUSH_THRESHOLD);
+        crashed.upsert(key, value);
+        final File[] logs = data.listFiles((dir, name) -> name.endsWith(".log"));
+        assertNotNull(logs);
+        assertEquals(1, logs.length);
+        // An entry cut in the middle of its header
+        Files.write(logs[0].toPath(), new byte[]{0, 0, 1}, StandardOpenOption.APPEND);
+
+        try (DAO dao = new LsmDao(data, FLUSH_THRESHOLD)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    private static void assertContains(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> actual = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+        }
+        assertFalse(actual.hasNext());
+    }
+}
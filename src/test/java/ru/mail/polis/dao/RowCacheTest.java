@@ -0,0 +1,57 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link RowCache}.
+ */
+class RowCacheTest extends TestBase {
+    private static final int CAPACITY = 64 * 1024;
+
+    @Test
+    void hitAfterPut() {
+        final RowCache cache = new RowCache(CAPACITY, 1);
+        final ByteBuffer key = randomKeyBuffer();
+        final byte[] value = randomValue();
+        assertNull(cache.get(key));
+        cache.put(key, value, cache.version(key));
+        assertEquals(ByteBuffer.wrap(value), cache.get(key));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void invalidateDropsRowAndStalePut() {
+        final RowCache cache = new RowCache(CAPACITY, 1);
+        final ByteBuffer key = randomKeyBuffer();
+        cache.put(key, randomValue(), cache.version(key));
+
+        final long version = cache.version(key);
+        cache.invalidate(key);
+        assertNull(cache.get(key));
+
+        // Read started before the invalidation must not be cached
+        cache.put(key, randomValue(), version);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void referencedRowsSurviveEviction() {
+        final RowCache cache = new RowCache(CAPACITY, 1);
+        final ByteBuffer hot = randomKeyBuffer();
+        final byte[] value = randomValue();
+        cache.put(hot, value, cache.version(hot));
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull(cache.get(hot));
+            final ByteBuffer cold = randomKeyBuffer();
+            cache.put(cold, randomValue(), cache.version(cold));
+        }
+        assertTrue(cache.evictions() > 0);
+        assertEquals(ByteBuffer.wrap(value), cache.get(hot));
+    }
+}
@@ -0,0 +1,104 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for timestamped writes and tombstones of {@link DAO} implementations.
+ */
+class VersionedTest extends TestBase {
+    @Test
+    void tombstoneIsVisible(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, randomValueBuffer(), 1);
+            dao.remove(key, 2);
+            final Value value = dao.getVersioned(key);
+            assertTrue(value.isTombstone());
+            assertEquals(2, value.getTimestamp());
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            assertFalse(dao.iterator(key).hasNext());
+        }
+    }
+
+    @Test
+    void staleWriteLoses(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer fresh = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, fresh, 10);
+            dao.upsert(key, randomValueBuffer(), 5);
+            dao.remove(key, 7);
+            assertEquals(fresh, dao.get(key));
+            assertEquals(10, dao.getVersioned(key).getTimestamp());
+        }
+    }
+
+    @Test
+    void envelopeRoundTrip() {
+        final ByteBuffer data = randomValueBuffer();
+        final Value value = Value.decode(ByteBuffer.wrap(Value.of(42, data).encode()));
+        assertFalse(value.isTombstone());
+        assertEquals(42, value.getTimestamp());
+        assertEquals(data, value.getData());
+
+        final Value tombstone = Value.decode(ByteBuffer.wrap(Value.tombstone(43).encode()));
+        assertTrue(tombstone.isTombstone());
+        assertEquals(43, tombstone.getTimestamp());
+    }
+
+    @Test
+    void versionedIteratorKeepsTombstones(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, randomValueBuffer(), 1);
+            dao.remove(key, 2);
+            try (CloseableIterator<Record> versions = dao.versionedIterator(key)) {
+                assertTrue(versions.hasNext());
+                final Record record = versions.next();
+                assertEquals(key, record.getKey());
+                final Value value = Value.decode(record.getValue());
+                assertTrue(value.isTombstone());
+                assertEquals(2, value.getTimestamp());
+            }
+        }
+    }
+
+    @Test
+    void compactionDropsTombstonesAfterGrace(@TempDir File data) throws IOException {
+        for (final DAOFactory.Engine engine : DAOFactory.Engine.values()) {
+            final StorageConfig config = StorageConfig.builder(StorageConfig.Profile.DEFAULT)
+                    .engine(engine)
+                    .tombstoneGraceMillis(TimeUnit.HOURS.toMillis(1))
+                    .build();
+            final ByteBuffer old = randomKeyBuffer();
+            final ByteBuffer recent = randomKeyBuffer();
+            final ByteBuffer rewritten = randomKeyBuffer();
+            final ByteBuffer value = randomValueBuffer();
+            try (DAO dao = DAOFactory.create(BatchTest.folder(data, config), config)) {
+                // Two generations, so that compaction rewrites the tables
+                dao.upsert(randomKeyBuffer(), randomValueBuffer());
+                dao.compact();
+                dao.remove(old, 2);
+                dao.remove(recent);
+                dao.remove(rewritten, 2);
+                dao.upsert(rewritten, value, 3);
+                dao.compact();
+
+                assertTrue(dao.getVersioned(recent).isTombstone(), engine.name());
+                assertThrows(NoSuchElementException.class, () -> dao.getVersioned(old));
+                assertEquals(value, dao.get(rewritten));
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.service.vovasq.ClusterClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link ClusterClient} routing requests to the owners of the keys.
+ */
+class ClusterClientTest extends ClusterTestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private File data0;
+    private File data1;
+    private DAO dao0;
+    private DAO dao1;
+    private Service storage0;
+    private Service storage1;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        final int port0 = randomPort();
+        final int port1 = randomPort();
+        endpoints = new LinkedHashSet<>(Arrays.asList(endpoint(port0), endpoint(port1)));
+        data0 = Files.createTempDirectory();
+        dao0 = DAOFactory.create(data0);
+        storage0 = ServiceFactory.create(port0, dao0, endpoints);
+        start(0, storage0);
+        data1 = Files.createTempDirectory();
+        dao1 = DAOFactory.create(data1);
+        storage1 = ServiceFactory.create(port1, dao1, endpoints);
+        start(1, storage1);
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        stop(0, storage0);
+        dao0.close();
+        Files.recursiveDelete(data0);
+        stop(1, storage1);
+        dao1.close();
+        Files.recursiveDelete(data1);
+        endpoints = Collections.emptySet();
+    }
+
+    @Test
+    void ownerStoresTheKey() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final ClusterClient client = new ClusterClient(endpoints.iterator().next());
+            assertEquals(0, client.getEpoch());
+            final String key = randomId();
+            final byte[] value = randomValue();
+
+            client.upsert(key, value, "1/1");
+            assertArrayEquals(value, client.get(key, "1/1"));
+            // The value lives on the owner only
+            final ByteBuffer id = ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+            assertNotEquals(stored(dao0, id), stored(dao1, id));
+
+            client.delete(key);
+            assertNull(client.get(key));
+        });
+    }
+
+    @Test
+    void misdirectedRequestRefreshesTopology() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final ClusterClient client = new ClusterClient(endpoints.iterator().next());
+            final int port2 = randomPort();
+            final File data2 = Files.createTempDirectory();
+            final DAO dao2 = DAOFactory.create(data2);
+            endpoints = new LinkedHashSet<>(endpoints);
+            endpoints.add(endpoint(port2));
+            final Service storage2 = ServiceFactory.create(port2, dao2, endpoints);
+            try {
+                start(2, storage2);
+                assertEquals(200, changeTopology(0, endpoints).getStatus());
+
+                // The keys moved to the new node are misdirected by the cached topology
+                for (int i = 0; i < 100; i++) {
+                    final String key = randomId();
+                    final byte[] value = randomValue();
+                    client.upsert(key, value, "1/1");
+                    assertArrayEquals(value, client.get(key, "1/1"));
+                }
+                assertEquals(1, client.getEpoch());
+            } finally {
+                stop(2, storage2);
+                dao2.close();
+                Files.recursiveDelete(data2);
+            }
+        });
+    }
+
+    private static boolean stored(
+            final DAO dao,
+            final ByteBuffer key) throws IOException {
+        try {
+            dao.get(key);
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+}
@@ -23,11 +23,15 @@ import one.nio.net.ConnectionString;
 import org.jetbrains.annotations.NotNull;
 import ru.mail.polis.TestBase;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * Facilities for cluster tests.
  *
@@ -116,6 +120,23 @@ abstract class ClusterTestBase extends TestBase {
         return client(node).delete(path(key, ack, from));
     }
 
+    Response range(
+            final int node,
+            @NotNull final String start,
+            @NotNull final String end) throws Exception {
+        return client(node).get("/v0/entities?start=" + start + "&end=" + end);
+    }
+
+    Response topology(final int node) throws Exception {
+        return client(node).get("/v0/topology");
+    }
+
+    Response changeTopology(
+            final int node,
+            @NotNull final Set<String> nodes) throws Exception {
+        return client(node).put("/v0/topology", String.join("\n", nodes).getBytes(UTF_8));
+    }
+
     Response upsert(
             final int node,
             @NotNull final String key,
@@ -131,4 +152,35 @@ abstract class ClusterTestBase extends TestBase {
             final int from) throws Exception {
         return client(node).put(path(key, ack, from), data);
     }
+
+    /**
+     * Writes the records in one batch, a {@code null} value removes the key.
+     */
+    Response batchUpsert(
+            final int node,
+            @NotNull final Map<String, byte[]> records,
+            final int ack,
+            final int from) throws Exception {
+        final ByteBuffer body = ByteBuffer.allocate(1024 * 1024);
+        for (final Map.Entry<String, byte[]> record : records.entrySet()) {
+            final byte[] key = record.getKey().getBytes(UTF_8);
+            body.putInt(key.length).put(key);
+            if (record.getValue() == null) {
+                body.putInt(-1);
+            } else {
+                body.putInt(record.getValue().length).put(record.getValue());
+            }
+        }
+        return client(node).put(
+                "/v0/entities/batch?replicas=" + ack + "/" + from,
+                Arrays.copyOf(body.array(), body.position()));
+    }
+
+    Response batchGet(
+            final int node,
+            final int ack,
+            final int from,
+            @NotNull final String... keys) throws Exception {
+        return client(node).get("/v0/entities/batch?id=" + String.join("&id=", keys) + "&replicas=" + ack + "/" + from);
+    }
 }
@@ -0,0 +1,166 @@
+package ru.mail.polis.service;
+
+import one.nio.http.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.dao.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for a node joining a running two node {@link Service} cluster.
+ */
+class RebalanceTest extends ClusterTestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int KEYS = 100;
+    private int port0;
+    private Set<String> initial;
+    private File data0;
+    private File data1;
+    private File data2;
+    private DAO dao0;
+    private DAO dao1;
+    private DAO dao2;
+    private Service storage0;
+    private Service storage1;
+    private Service storage2;
+    // Removed keys map to null
+    private Map<String, byte[]> expected;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        port0 = randomPort();
+        final int port1 = randomPort();
+        final int port2 = randomPort();
+        initial = new LinkedHashSet<>(Arrays.asList(endpoint(port0), endpoint(port1)));
+        endpoints = new LinkedHashSet<>(Arrays.asList(endpoint(port0), endpoint(port1), endpoint(port2)));
+        data0 = Files.createTempDirectory();
+        data1 = Files.createTempDirectory();
+        data2 = Files.createTempDirectory();
+        dao0 = DAOFactory.create(data0);
+        dao1 = DAOFactory.create(data1);
+        dao2 = DAOFactory.create(data2);
+
+        // The joining node has outdated versions of all the keys, the handoff must win over them
+        expected = new LinkedHashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            final String key = randomId();
+            expected.put(key, randomValue());
+            dao2.upsert(ByteBuffer.wrap(key.getBytes(UTF_8)), randomValueBuffer());
+        }
+
+        storage0 = ServiceFactory.create(port0, dao0, initial);
+        start(0, storage0);
+        storage1 = ServiceFactory.create(port1, dao1, initial);
+        start(1, storage1);
+        storage2 = ServiceFactory.create(port2, dao2, endpoints);
+        start(2, storage2);
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        stop(0, storage0);
+        dao0.close();
+        Files.recursiveDelete(data0);
+        stop(1, storage1);
+        dao1.close();
+        Files.recursiveDelete(data1);
+        stop(2, storage2);
+        dao2.close();
+        Files.recursiveDelete(data2);
+        endpoints = Collections.emptySet();
+    }
+
+    @Test
+    void joinMovesKeys() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            write(1);
+            assertEquals(200, changeTopology(0, endpoints).getStatus());
+            for (int node = 0; node < endpoints.size(); node++) {
+                check(node);
+            }
+        });
+    }
+
+    @Test
+    void joinerGetsEveryReplica() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            // Every key on both initial nodes
+            write(2);
+            assertEquals(200, changeTopology(0, endpoints).getStatus());
+
+            // Every node replicates every key by default, so the joiner must store all of them itself
+            for (final Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                final Value value = dao2.getVersioned(ByteBuffer.wrap(entry.getKey().getBytes(UTF_8)));
+                if (entry.getValue() == null) {
+                    assertTrue(value.isTombstone());
+                } else {
+                    assertEquals(ByteBuffer.wrap(entry.getValue()), value.getData());
+                }
+            }
+        });
+    }
+
+    @Test
+    void restartKeepsMembership() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            write(1);
+            assertEquals(200, changeTopology(0, endpoints).getStatus());
+
+            // Restart with the configuration of the initial cluster
+            stop(0, storage0);
+            storage0 = ServiceFactory.create(port0, dao0, initial);
+            start(0, storage0);
+
+            final String topology = new String(topology(0).getBody(), UTF_8);
+            for (final String node : endpoints) {
+                assertTrue(topology.contains(node + '\n'), topology);
+            }
+            check(0);
+        });
+    }
+
+    /**
+     * Writes the keys through the initial nodes to {@code from} replicas each,
+     * removes every other one of them.
+     */
+    private void write(final int from) throws Exception {
+        boolean remove = false;
+        for (final Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertEquals(201, upsert(0, entry.getKey(), entry.getValue(), from, from).getStatus());
+            if (remove) {
+                assertEquals(202, delete(1, entry.getKey(), from, from).getStatus());
+                entry.setValue(null);
+            }
+            remove = !remove;
+        }
+    }
+
+    private void check(final int node) throws Exception {
+        for (final Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            final Response response = get(node, entry.getKey());
+            if (entry.getValue() == null) {
+                assertEquals(404, response.getStatus());
+            } else {
+                assertEquals(200, response.getStatus());
+                assertArrayEquals(entry.getValue(), response.getBody());
+            }
+        }
+    }
+}
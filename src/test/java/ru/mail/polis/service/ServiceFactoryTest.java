@@ -0,0 +1,40 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code topology.weights} parsing in {@link ServiceFactory}.
+ */
+class ServiceFactoryTest extends TestBase {
+    private static final Set<String> NODES = Set.of("http://a:1", "http://b:2");
+
+    @Test
+    void unlistedNodesWeighOne() {
+        assertEquals(
+                Map.of("http://a:1", 2.5, "http://b:2", 1.0),
+                ServiceFactory.weights("http://a:1=2.5", NODES));
+        assertEquals(
+                Map.of("http://a:1", 1.0, "http://b:2", 1.0),
+                ServiceFactory.weights("", NODES));
+    }
+
+    @Test
+    void unknownNodeRejected() {
+        final IllegalArgumentException e = assertThrows(
+                IllegalArgumentException.class,
+                () -> ServiceFactory.weights("http://a:1=2,http://c:3=2", NODES));
+        assertTrue(e.getMessage().contains("http://c:3"), e.getMessage());
+    }
+
+    @Test
+    void malformedEntryRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ServiceFactory.weights("http://a:1", NODES));
+        assertThrows(IllegalArgumentException.class, () -> ServiceFactory.weights("http://a:1=x", NODES));
+    }
+}
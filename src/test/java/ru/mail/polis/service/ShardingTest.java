@@ -24,6 +24,7 @@ import ru.mail.polis.Files;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAOFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.time.Duration;
@@ -31,6 +32,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -262,4 +264,29 @@ class ShardingTest extends ClusterTestBase {
             assertEquals(1, copies);
         });
     }
+
+    @Test
+    void rangeAcrossNodes() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (int i = 0; i < 100; i++) {
+                final String key = String.format("range%03d", i);
+                final byte[] value = ("value" + i).getBytes(UTF_8);
+                assertEquals(201, upsert(i % 2, key, value, 1, 1).getStatus());
+                if (i % 10 == 0) {
+                    assertEquals(202, delete(1 - i % 2, key, 1, 1).getStatus());
+                } else {
+                    expected.write((key + '\n').getBytes(UTF_8));
+                    expected.write(value);
+                }
+            }
+
+            // Both nodes merge the keys sharded over the cluster
+            for (int node = 0; node < 2; node++) {
+                final Response response = range(node, "range", "rangf");
+                assertEquals(200, response.getStatus());
+                assertArrayEquals(expected.toByteArray(), response.getBody());
+            }
+        });
+    }
 }
@@ -20,6 +20,7 @@ import one.nio.http.HttpClient;
 import one.nio.http.Response;
 import one.nio.net.ConnectionString;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -28,12 +29,16 @@ import ru.mail.polis.TestBase;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAOFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -43,6 +48,7 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 class SingleNodeTest extends TestBase {
     private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final String BATCH_PATH = "/v0/entities/batch";
     private static File data;
     private static DAO dao;
     private static int port;
@@ -292,4 +298,91 @@ class SingleNodeTest extends TestBase {
             assertEquals(404, get(key).getStatus());
         });
     }
+
+    @Test
+    void batchPut() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String kept = randomId();
+            final byte[] keptValue = randomValue();
+            final String removed = randomId();
+            final String empty = randomId();
+            assertEquals(201, upsert(removed, randomValue()).getStatus());
+
+            final ByteBuffer body = ByteBuffer.allocate(1024 * 1024);
+            putRecord(body, kept, keptValue);
+            putRecord(body, removed, null);
+            putRecord(body, empty, new byte[0]);
+            assertEquals(201, client.put(BATCH_PATH, Arrays.copyOf(body.array(), body.position())).getStatus());
+
+            assertArrayEquals(keptValue, get(kept).getBody());
+            assertEquals(404, get(removed).getStatus());
+            final Response response = get(empty);
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(new byte[0], response.getBody());
+        });
+    }
+
+    @Test
+    void batchPutMalformed() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            final ByteBuffer body = ByteBuffer.allocate(1024 * 1024);
+            putRecord(body, key, randomValue());
+            // Cut in the middle of the value
+            assertEquals(400, client.put(BATCH_PATH, Arrays.copyOf(body.array(), body.position() - 1)).getStatus());
+            assertEquals(404, get(key).getStatus());
+        });
+    }
+
+    @Test
+    void batchGet() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String first = randomId();
+            final byte[] firstValue = randomValue();
+            final String second = randomId();
+            final byte[] secondValue = randomValue();
+            final String removed = randomId();
+            assertEquals(201, upsert(first, firstValue).getStatus());
+            assertEquals(201, upsert(second, secondValue).getStatus());
+            assertEquals(201, upsert(removed, randomValue()).getStatus());
+            assertEquals(202, delete(removed).getStatus());
+
+            // Found records in the request order, the missing ones skipped
+            final Response response = client.get(
+                    BATCH_PATH + "?id=" + second + "&id=absent&id=" + removed + "&id=" + first);
+            assertEquals(200, response.getStatus());
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write((second + '\n').getBytes(UTF_8));
+            expected.write(secondValue);
+            expected.write((first + '\n').getBytes(UTF_8));
+            expected.write(firstValue);
+            assertArrayEquals(expected.toByteArray(), response.getBody());
+        });
+    }
+
+    @Test
+    void batchGetBadRequest() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, client.get(BATCH_PATH).getStatus());
+            assertEquals(400, client.get(BATCH_PATH + "?id=").getStatus());
+            assertEquals(400, client.get(BATCH_PATH + "?id=%zz").getStatus());
+            assertEquals(400, client.get(BATCH_PATH + "?id=key%").getStatus());
+        });
+    }
+
+    /**
+     * Appends {@code [key length][key][value length][value]}, value length {@code -1} for a removal.
+     */
+    private static void putRecord(
+            @NotNull final ByteBuffer body,
+            @NotNull final String key,
+            @Nullable final byte[] value) {
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        body.putInt(keyBytes.length).put(keyBytes);
+        if (value == null) {
+            body.putInt(-1);
+        } else {
+            body.putInt(value.length).put(value);
+        }
+    }
 }
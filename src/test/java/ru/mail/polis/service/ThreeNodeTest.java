@@ -24,14 +24,18 @@ import ru.mail.polis.Files;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAOFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -276,6 +280,52 @@ class ThreeNodeTest extends ClusterTestBase {
         });
     }
 
+    @Test
+    void batchTolerateFailure() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String kept = randomId();
+            final byte[] keptValue = randomValue();
+            final String removed = randomId();
+            final Map<String, byte[]> records = new LinkedHashMap<>();
+            records.put(kept, keptValue);
+            records.put(removed, randomValue());
+
+            // Insert into node 2
+            assertEquals(201, batchUpsert(2, records, 2, 3).getStatus());
+
+            // Stop node 2
+            stop(2, storage2);
+
+            // Check the batch reached a quorum of every key
+            Response response = get(1, kept, 2, 3);
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(keptValue, response.getBody());
+
+            // Delete
+            assertEquals(201, batchUpsert(0, Collections.singletonMap(removed, null), 2, 3).getStatus());
+
+            // Check the removal wins over the stale copies
+            response = batchGet(1, 2, 3, removed, kept);
+            assertEquals(200, response.getStatus());
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write((kept + '\n').getBytes(UTF_8));
+            expected.write(keptValue);
+            assertArrayEquals(expected.toByteArray(), response.getBody());
+        });
+    }
+
+    @Test
+    void batchUnreachableRF() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            stop(0, storage0);
+            stop(1, storage1);
+            assertEquals(504, batchUpsert(2, Collections.singletonMap(key, randomValue()), 2, 3).getStatus());
+            assertEquals(504, batchGet(2, 2, 3, key).getStatus());
+            assertEquals(400, batchGet(2, 0, 3, key).getStatus());
+        });
+    }
+
     @Test
     void respectRF1() {
         assertTimeoutPreemptively(TIMEOUT, () -> {
@@ -0,0 +1,124 @@
+package ru.mail.polis.service.vovasq;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.service.vovasq.AdmissionControl.Lane;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link AdmissionControl}.
+ */
+class AdmissionControlTest extends TestBase {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Queue<Runnable> workers = new ArrayDeque<>();
+    private long now;
+    private final AdmissionControl admission = new AdmissionControl(workers::add, () -> now, new Metrics());
+    private final AtomicInteger served = new AtomicInteger();
+    private final AtomicInteger shed = new AtomicInteger();
+
+    @Test
+    void servesInTime() {
+        submit(Lane.CLIENT);
+        now += 50 * MILLIS;
+        drain();
+        assertEquals(1, served.get());
+        assertEquals(0, shed.get());
+        assertEquals(0, admission.getQueued());
+    }
+
+    @Test
+    void shedsAfterInterval() {
+        submit(Lane.CLIENT);
+        now += 150 * MILLIS;
+        drain();
+        assertEquals(0, served.get());
+        assertEquals(1, shed.get());
+        assertEquals(1, admission.getShed(Lane.CLIENT));
+    }
+
+    @Test
+    void standingQueueShortensDeadline() {
+        submit(Lane.CLIENT);
+        now += 60 * MILLIS;
+        submit(Lane.CLIENT);
+        workers.remove().run();
+        assertEquals(1, served.get());
+        now += 50 * MILLIS;
+        assertTrue(admission.isOverloaded(Lane.CLIENT));
+        // Waited less than the interval, but the lane has not been empty for longer than it
+        drain();
+        assertEquals(1, served.get());
+        assertEquals(1, shed.get());
+        assertFalse(admission.isOverloaded(Lane.CLIENT));
+    }
+
+    @Test
+    void burstIsNotOverload() {
+        for (int i = 0; i < 10; i++) {
+            submit(Lane.CLIENT);
+        }
+        now += 20 * MILLIS;
+        assertFalse(admission.isOverloaded(Lane.CLIENT));
+        drain();
+        assertEquals(10, served.get());
+    }
+
+    @Test
+    void shedsOverCapacity() {
+        for (int i = 0; i < 17; i++) {
+            submit(Lane.HANDOFF);
+        }
+        assertEquals(1, shed.get());
+        assertEquals(16, admission.getQueued());
+        drain();
+        assertEquals(16, served.get());
+    }
+
+    @Test
+    void lanesAreIndependent() {
+        submit(Lane.CLIENT);
+        now += 200 * MILLIS;
+        assertTrue(admission.isOverloaded(Lane.CLIENT));
+        assertFalse(admission.isOverloaded(Lane.REPLICA));
+        submit(Lane.REPLICA);
+        drain();
+        assertEquals(1, served.get());
+        assertEquals(1, shed.get());
+    }
+
+    @Test
+    void supplyFailsWhenShed() {
+        final CompletableFuture<String> result = admission.supply(Lane.CLIENT, () -> "value");
+        now += 150 * MILLIS;
+        drain();
+        final ExecutionException e = assertThrows(ExecutionException.class, result::get);
+        assertTrue(e.getCause() instanceof AdmissionControl.OverloadedException);
+    }
+
+    @Test
+    void supplyReturnsResult() throws Exception {
+        final CompletableFuture<String> result = admission.supply(Lane.REPLICA, () -> "value");
+        drain();
+        assertEquals("value", result.get());
+    }
+
+    private void submit(final Lane lane) {
+        admission.execute(lane, served::incrementAndGet, shed::incrementAndGet);
+    }
+
+    private void drain() {
+        Runnable task;
+        while ((task = workers.poll()) != null) {
+            task.run();
+        }
+    }
+}
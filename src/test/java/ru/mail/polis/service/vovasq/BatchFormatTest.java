@@ -0,0 +1,84 @@
+package ru.mail.polis.service.vovasq;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Mutation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link BatchFormat}.
+ */
+class BatchFormatTest extends TestBase {
+    @Test
+    void mutationsRoundTrip() {
+        final ByteBuffer upserted = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        final ByteBuffer removed = randomKeyBuffer();
+        final ByteBuffer emptyValue = randomKeyBuffer();
+        final List<Mutation> decoded = BatchFormat.decodeMutations(BatchFormat.encodeMutations(Arrays.asList(
+                Mutation.upsert(upserted, value),
+                Mutation.remove(removed),
+                Mutation.upsert(emptyValue, ByteBuffer.allocate(0)))));
+
+        assertEquals(3, decoded.size());
+        assertEquals(upserted, decoded.get(0).getKey());
+        assertEquals(value, decoded.get(0).getValue());
+        assertEquals(removed, decoded.get(1).getKey());
+        assertTrue(decoded.get(1).isRemove());
+        assertEquals(emptyValue, decoded.get(2).getKey());
+        assertFalse(decoded.get(2).isRemove());
+        assertEquals(0, decoded.get(2).getValue().remaining());
+    }
+
+    @Test
+    void emptyBatch() {
+        assertTrue(BatchFormat.decodeMutations(BatchFormat.encodeMutations(List.of())).isEmpty());
+    }
+
+    @Test
+    void recordsRoundTrip() {
+        final Record first = Record.of(randomKeyBuffer(), randomValueBuffer());
+        final Record second = Record.of(randomKeyBuffer(), ByteBuffer.allocate(0));
+        final List<Record> decoded = BatchFormat.decodeRecords(BatchFormat.encodeRecords(List.of(first, second)));
+        assertEquals(List.of(first, second), decoded);
+    }
+
+    @Test
+    void truncatedBody() {
+        final byte[] body = BatchFormat.encodeMutations(
+                List.of(Mutation.upsert(randomKeyBuffer(), randomValueBuffer())));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> BatchFormat.decodeMutations(Arrays.copyOf(body, body.length - 1)));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> BatchFormat.decodeMutations(Arrays.copyOf(body, Integer.BYTES + KEY_LENGTH + 2)));
+    }
+
+    @Test
+    void badLength() {
+        final byte[] negativeKey = ByteBuffer.allocate(Integer.BYTES * 2).putInt(-1).putInt(0).array();
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.decodeMutations(negativeKey));
+        final byte[] hugeValue = ByteBuffer.allocate(Integer.BYTES * 2 + 1)
+                .putInt(1).put((byte) 'k').putInt(Integer.MAX_VALUE).array();
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.decodeMutations(hugeValue));
+    }
+
+    @Test
+    void emptyKey() {
+        final byte[] body = BatchFormat.encodeMutations(List.of(Mutation.remove(ByteBuffer.allocate(0))));
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.decodeMutations(body));
+    }
+
+    @Test
+    void recordWithoutValue() {
+        final byte[] body = BatchFormat.encodeMutations(List.of(Mutation.remove(randomKeyBuffer())));
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.decodeRecords(body));
+    }
+}
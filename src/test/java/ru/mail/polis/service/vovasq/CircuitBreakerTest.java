@@ -0,0 +1,62 @@
+package ru.mail.polis.service.vovasq;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link CircuitBreaker}.
+ */
+class CircuitBreakerTest extends TestBase {
+    private static final long INTERVAL = 100;
+    private static final long COOL_DOWN = 1000;
+
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker(now::get, INTERVAL, 8, 3, COOL_DOWN);
+
+    @Test
+    void suspicionGrowsWithSilence() {
+        for (int i = 0; i < 10; i++) {
+            now.addAndGet(INTERVAL);
+            breaker.onHeartbeat();
+        }
+        assertTrue(breaker.allowRequest());
+        now.addAndGet(INTERVAL);
+        final double phi = breaker.phi();
+        now.addAndGet(INTERVAL * 10);
+        assertTrue(breaker.phi() > phi);
+        now.addAndGet(INTERVAL * 10);
+        assertFalse(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        breaker.onHeartbeat();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    void opensAfterFailuresAndProbes() {
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+
+        now.addAndGet(COOL_DOWN);
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // Only one probe at a time
+        assertFalse(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        now.addAndGet(COOL_DOWN);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+}
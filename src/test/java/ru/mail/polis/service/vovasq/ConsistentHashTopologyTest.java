@@ -0,0 +1,103 @@
+package ru.mail.polis.service.vovasq;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link ConsistentHashTopology}.
+ */
+class ConsistentHashTopologyTest extends TestBase {
+    private static final Set<String> NODES = Set.of("http://a:1", "http://b:2", "http://c:3", "http://d:4");
+
+    @Test
+    void replicasAreDistinctAndStartWithPrimary() {
+        final Topology<String> topology = new ConsistentHashTopology(NODES, "http://a:1", 64);
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final List<String> replicas = topology.replicasFor(key, NODES.size());
+            assertEquals(topology.primaryFor(key), replicas.get(0));
+            assertEquals(NODES, new HashSet<>(replicas));
+        }
+    }
+
+    @Test
+    void arrayMatchesList() {
+        final Topology<String> topology = new ConsistentHashTopology(NODES, "http://a:1", 64);
+        final String[] replicas = new String[3];
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            assertEquals(3, topology.replicasFor(key, replicas));
+            assertEquals(topology.replicasFor(key, 3), List.of(replicas));
+        }
+    }
+
+    @Test
+    void independentOfNodesOrder() {
+        final Set<String> reversed =
+                new LinkedHashSet<>(List.of("http://d:4", "http://c:3", "http://b:2", "http://a:1"));
+        final Topology<String> first = new ConsistentHashTopology(NODES, "http://a:1", 64);
+        final Topology<String> second = new ConsistentHashTopology(reversed, "http://b:2", 64);
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            assertEquals(first.replicasFor(key, 3), second.replicasFor(key, 3));
+        }
+    }
+
+    @Test
+    void virtualNodesBalanceKeys() {
+        final Topology<String> topology = new ConsistentHashTopology(NODES, "http://a:1", 128);
+        final Map<String, Integer> owned = new HashMap<>();
+        final int keys = 10_000;
+        for (int i = 0; i < keys; i++) {
+            owned.merge(topology.primaryFor(randomKeyBuffer()), 1, Integer::sum);
+        }
+        assertEquals(NODES, owned.keySet());
+        final int mean = keys / NODES.size();
+        for (final int count : owned.values()) {
+            assertTrue(count < mean * 3 / 2 && count > mean / 2, "Unbalanced " + owned);
+        }
+    }
+
+    @Test
+    void joinMovesKeysOnlyToNewNode() {
+        final Set<String> joined = new HashSet<>(NODES);
+        joined.add("http://e:5");
+        final Topology<String> before = new ConsistentHashTopology(NODES, "http://a:1", 128);
+        final Topology<String> after = new ConsistentHashTopology(joined, "http://a:1", 128);
+        int moved = 0;
+        final int keys = 10_000;
+        for (int i = 0; i < keys; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final String owner = after.primaryFor(key);
+            if (!owner.equals(before.primaryFor(key))) {
+                assertEquals("http://e:5", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved < keys / 3);
+    }
+
+    @Test
+    void withNodesBuildsSameRing() {
+        final Set<String> joined = new HashSet<>(NODES);
+        joined.add("http://e:5");
+        final Topology<String> changed = new ConsistentHashTopology(NODES, "http://a:1", 64).withNodes(joined);
+        final Topology<String> fresh = new ConsistentHashTopology(joined, "http://a:1", 64);
+        assertEquals(joined, changed.all());
+        assertTrue(changed.isMe("http://a:1"));
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            assertEquals(fresh.replicasFor(key, 3), changed.replicasFor(key, 3));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.mail.polis.service.vovasq;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link Hedging}.
+ */
+class HedgingTest extends TestBase {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Hedging hedging = new Hedging(scheduler);
+
+    @AfterEach
+    void afterEach() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void hedgeWinsOverSlowReplica() throws Exception {
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        final List<String> values = hedging.read(List.of("a", "b"), 1, node -> "a".equals(node)
+                ? slow
+                : CompletableFuture.completedFuture(node)).get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("b"), values);
+        assertEquals(1, hedging.getFired());
+        assertEquals(1, hedging.getWon());
+        assertTrue(slow.isCancelled());
+    }
+
+    @Test
+    void fastReplicasNeedNoHedge() throws Exception {
+        final List<String> values = hedging.read(List.of("a", "b", "c"), 2, CompletableFuture::completedFuture)
+                .get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("a", "b"), values);
+        assertEquals(0, hedging.getFired());
+    }
+
+    @Test
+    void failedReplicaIsReplaced() throws Exception {
+        final List<String> values = hedging.read(List.of("a", "b"), 1, node -> "a".equals(node)
+                ? CompletableFuture.<String>failedFuture(new IOException("down"))
+                : CompletableFuture.completedFuture(node)).get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("b"), values);
+        assertEquals(0, hedging.getFired());
+    }
+
+    @Test
+    void failsWithoutEnoughReplicas() {
+        final CompletableFuture<List<String>> result = hedging.read(List.of("a", "b"), 2, node -> "a".equals(node)
+                ? CompletableFuture.<String>failedFuture(new IOException("down"))
+                : CompletableFuture.completedFuture(node));
+        assertTrue(result.isCompletedExceptionally());
+    }
+}
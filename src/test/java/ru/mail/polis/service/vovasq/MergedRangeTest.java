@@ -0,0 +1,116 @@
+package ru.mail.polis.service.vovasq;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.Iters;
+import ru.mail.polis.dao.Value;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link MergedRange} over local and {@link RemoteRange} sources.
+ */
+class MergedRangeTest extends TestBase {
+    @Test
+    void freshestVersionWins() {
+        final MergedRange merged = new MergedRange(Arrays.asList(
+                source(versioned("a", 1, "a1"), versioned("b", 5, "b5"), removed("c", 3)),
+                source(versioned("b", 2, "b2"), versioned("c", 2, "c2"), versioned("d", 1, "d1")),
+                source()));
+        assertEquals(Arrays.asList("a=a1", "b=b5", "d=d1"), drain(merged));
+    }
+
+    @Test
+    void waitsForRemoteRecords() {
+        final RemoteRange remote = new RemoteRange("remote", 16);
+        final Subscription subscription = new Subscription();
+        remote.onSubscribe(subscription);
+        final MergedRange merged = new MergedRange(Arrays.asList(
+                source(versioned("a", 1, "a1"), versioned("c", 1, "c1")),
+                remote));
+        assertFalse(merged.isReady());
+        final AtomicInteger woken = new AtomicInteger();
+        merged.whenReady(woken::incrementAndGet);
+
+        // A record split over the deliveries
+        final byte[] encoded = BatchFormat.encodeRecords(Arrays.asList(versioned("b", 1, "b1"), removed("c", 2)));
+        remote.onNext(List.of(ByteBuffer.wrap(encoded, 0, 5)));
+        assertFalse(merged.isReady());
+        assertEquals(0, woken.get());
+        remote.onNext(List.of(ByteBuffer.wrap(encoded, 5, encoded.length - 5)));
+        assertEquals(1, woken.get());
+        assertTrue(merged.isReady());
+        assertEquals("a=a1", string(merged.next()));
+        assertEquals("b=b1", string(merged.next()));
+
+        // The removal of c is known, the end of the stream is not
+        assertFalse(merged.isReady());
+        remote.onComplete();
+        assertTrue(merged.isReady());
+        assertFalse(merged.hasNext());
+        assertTrue(subscription.requested.get() > 0);
+    }
+
+    @NotNull
+    private static Record versioned(
+            @NotNull final String key,
+            final long timestamp,
+            @NotNull final String value) {
+        return Record.of(
+                ByteBuffer.wrap(key.getBytes(UTF_8)),
+                ByteBuffer.wrap(Value.of(timestamp, ByteBuffer.wrap(value.getBytes(UTF_8))).encode()));
+    }
+
+    @NotNull
+    private static Record removed(
+            @NotNull final String key,
+            final long timestamp) {
+        return Record.of(ByteBuffer.wrap(key.getBytes(UTF_8)), ByteBuffer.wrap(Value.tombstone(timestamp).encode()));
+    }
+
+    @NotNull
+    private static CloseableIterator<Record> source(@NotNull final Record... records) {
+        return Iters.closeable(Arrays.asList(records).iterator());
+    }
+
+    @NotNull
+    private static List<String> drain(@NotNull final CloseableIterator<Record> records) {
+        final List<String> result = new ArrayList<>();
+        while (records.hasNext()) {
+            result.add(string(records.next()));
+        }
+        return result;
+    }
+
+    @NotNull
+    private static String string(@NotNull final Record record) {
+        return UTF_8.decode(record.getKey()) + "=" + UTF_8.decode(record.getValue());
+    }
+
+    private static final class Subscription implements Flow.Subscription {
+        private final AtomicInteger requested = new AtomicInteger();
+
+        @Override
+        public void request(final long n) {
+            requested.addAndGet((int) n);
+        }
+
+        @Override
+        public void cancel() {
+            // Nothing to cancel
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ru.mail.polis.service.vovasq;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link Metrics}.
+ */
+class MetricsTest extends TestBase {
+    @Test
+    void rendersSortedLines() {
+        final Metrics metrics = new Metrics();
+        metrics.gauge("b.gauge", () -> 7);
+        metrics.counter("a.counter").add(3);
+        final String text = metrics.render();
+        assertEquals("a.counter 3\nb.gauge 7\n", text);
+    }
+
+    @Test
+    void timerReportsPercentiles() {
+        final Metrics metrics = new Metrics();
+        final Metrics.Timer timer = metrics.timer("t");
+        for (int i = 1; i <= 100; i++) {
+            timer.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        final String text = metrics.render();
+        assertTrue(text.contains("t.count 100\n"), text);
+        final long p50 = value(text, "t.p50_us");
+        assertTrue(p50 >= 49_000 && p50 <= 51_000, text);
+        final long max = value(text, "t.max_us");
+        assertTrue(max >= 99_000 && max <= 101_000, text);
+    }
+
+    @Test
+    void timerAccumulatesAcrossRenders() {
+        final Metrics metrics = new Metrics();
+        final Metrics.Timer timer = metrics.timer("t");
+        timer.record(1_000);
+        metrics.render();
+        timer.record(1_000);
+        assertTrue(metrics.render().contains("t.count 2\n"));
+    }
+
+    @Test
+    void timedDaoTimesEveryIterator(@TempDir final File data) throws IOException {
+        final Metrics metrics = new Metrics();
+        try (DAO dao = new TimedDao(DAOFactory.create(data), metrics)) {
+            final ByteBuffer from = ByteBuffer.allocate(0);
+            dao.iterator(from).close();
+            dao.range(from, null).close();
+            dao.versionedIterator(from).close();
+            dao.cursor().close();
+        }
+        final String text = metrics.render();
+        assertTrue(text.contains("dao.iterator.count 4\n"), text);
+    }
+
+    private static long value(
+            final String text,
+            final String name) {
+        for (final String line : text.split("\n")) {
+            if (line.startsWith(name + ' ')) {
+                return Long.parseLong(line.substring(name.length() + 1));
+            }
+        }
+        throw new AssertionError(name + " is missing in " + text);
+    }
+}
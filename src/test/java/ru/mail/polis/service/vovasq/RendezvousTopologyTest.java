@@ -0,0 +1,65 @@
+package ru.mail.polis.service.vovasq;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link RendezvousTopology}.
+ */
+class RendezvousTopologyTest extends TestBase {
+    private static final Map<String, Double> WEIGHTS = Map.of(
+            "http://a:1", 1.0,
+            "http://b:2", 1.0,
+            "http://c:3", 2.0);
+
+    @Test
+    void replicasAreOrderedAndDistinct() {
+        final Topology<String> topology = new RendezvousTopology(WEIGHTS, "http://a:1");
+        final String[] replicas = new String[2];
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final List<String> all = topology.replicasFor(key, WEIGHTS.size());
+            assertEquals(WEIGHTS.keySet(), new HashSet<>(all));
+            assertEquals(topology.primaryFor(key), all.get(0));
+
+            assertEquals(2, topology.replicasFor(key, replicas));
+            assertEquals(all.subList(0, 2), Arrays.asList(replicas));
+        }
+    }
+
+    @Test
+    void shareFollowsWeight() {
+        final Topology<String> topology = new RendezvousTopology(WEIGHTS, "http://a:1");
+        final Map<String, Integer> counts = new HashMap<>();
+        final int keys = 40_000;
+        for (int i = 0; i < keys; i++) {
+            counts.merge(topology.primaryFor(randomKeyBuffer()), 1, Integer::sum);
+        }
+        assertEquals(0.5, counts.get("http://c:3") / (double) keys, 0.02);
+        assertEquals(0.25, counts.get("http://a:1") / (double) keys, 0.02);
+    }
+
+    @Test
+    void joinMovesKeysOnlyToNewNode() {
+        final Map<String, Double> joined = new HashMap<>(WEIGHTS);
+        joined.put("http://d:4", 1.0);
+        final Topology<String> before = new RendezvousTopology(WEIGHTS, "http://a:1");
+        final Topology<String> after = new RendezvousTopology(joined, "http://a:1");
+        for (int i = 0; i < 10_000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final String owner = after.primaryFor(key);
+            if (!owner.equals(before.primaryFor(key))) {
+                assertEquals("http://d:4", owner);
+            }
+        }
+    }
+}
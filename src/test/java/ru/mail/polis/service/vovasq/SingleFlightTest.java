@@ -0,0 +1,102 @@
+package ru.mail.polis.service.vovasq;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link SingleFlight}.
+ */
+class SingleFlightTest extends TestBase {
+    private final SingleFlight<String, Integer, String> flights = new SingleFlight<>();
+
+    @Test
+    void concurrentCallsShareResult() throws Exception {
+        final CompletableFuture<String> call = new CompletableFuture<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<String> first = flights.run("a", 1, () -> {
+            calls.incrementAndGet();
+            return call;
+        });
+        final CompletableFuture<String> second = flights.run("a", 1, () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        assertFalse(second.isDone());
+        call.complete("value");
+        assertEquals("value", first.get());
+        assertEquals("value", second.get());
+        assertEquals(1, calls.get());
+        assertEquals(1, flights.getLed());
+        assertEquals(1, flights.getJoined());
+    }
+
+    @Test
+    void differentKeysDontShare() throws Exception {
+        final CompletableFuture<String> call = new CompletableFuture<>();
+        flights.run("a", 1, () -> call);
+        assertEquals("b", flights.run("b", 1, () -> CompletableFuture.completedFuture("b")).get());
+        assertEquals(0, flights.getJoined());
+    }
+
+    @Test
+    void landedCallIsNotJoined() throws Exception {
+        assertEquals("1", flights.run("a", 1, () -> CompletableFuture.completedFuture("1")).get());
+        assertEquals("2", flights.run("a", 1, () -> CompletableFuture.completedFuture("2")).get());
+        assertEquals(2, flights.getLed());
+    }
+
+    @Test
+    void variantsDontShare() throws Exception {
+        final CompletableFuture<String> call = new CompletableFuture<>();
+        flights.run("a", 1, () -> call);
+        assertEquals("2", flights.run("a", 2, () -> CompletableFuture.completedFuture("2")).get());
+        assertEquals(0, flights.getJoined());
+    }
+
+    @Test
+    void forgetDropsAllVariants() throws Exception {
+        flights.run("a", 1, CompletableFuture::new);
+        flights.run("a", 2, CompletableFuture::new);
+        flights.forget("a");
+        assertEquals("1", flights.run("a", 1, () -> CompletableFuture.completedFuture("1")).get());
+        assertEquals("2", flights.run("a", 2, () -> CompletableFuture.completedFuture("2")).get());
+        assertEquals(0, flights.getJoined());
+    }
+
+    @Test
+    void forgottenCallIsNotJoined() throws Exception {
+        final CompletableFuture<String> call = new CompletableFuture<>();
+        final CompletableFuture<String> first = flights.run("a", 1, () -> call);
+        flights.forget("a");
+        assertEquals("fresh", flights.run("a", 1, () -> CompletableFuture.completedFuture("fresh")).get());
+        call.complete("stale");
+        assertEquals("stale", first.get());
+        assertEquals(0, flights.getJoined());
+    }
+
+    @Test
+    void failureIsShared() {
+        final CompletableFuture<String> call = new CompletableFuture<>();
+        final CompletableFuture<String> first = flights.run("a", 1, () -> call);
+        final CompletableFuture<String> second = flights.run("a", 1, () -> call);
+        call.completeExceptionally(new IOException("down"));
+        assertThrows(ExecutionException.class, first::get);
+        assertThrows(ExecutionException.class, second::get);
+    }
+
+    @Test
+    void throwingCallFails() throws Exception {
+        final CompletableFuture<String> failed = flights.run("a", 1, () -> {
+            throw new IllegalStateException("broken");
+        });
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals("ok", flights.run("a", 1, () -> CompletableFuture.completedFuture("ok")).get());
+    }
+}
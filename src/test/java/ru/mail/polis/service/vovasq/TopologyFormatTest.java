@@ -0,0 +1,51 @@
+package ru.mail.polis.service.vovasq;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link TopologyFormat}.
+ */
+class TopologyFormatTest extends TestBase {
+    private static final Set<String> NODES = Set.of("http://a:1", "http://b:2", "http://c:3");
+
+    @Test
+    void ringRoundTrip() {
+        final Topology<String> topology = new ConsistentHashTopology(NODES, "http://a:1", 32);
+        final String text = TopologyFormat.encode(topology, 7);
+        assertEquals(7, TopologyFormat.epochOf(text));
+        assertSamePlacement(topology, TopologyFormat.decode(text, ""));
+    }
+
+    @Test
+    void rendezvousKeepsWeights() {
+        final Topology<String> topology =
+                new RendezvousTopology(Map.of("http://a:1", 1.0, "http://b:2", 2.5, "http://c:3", 0.5), "http://b:2");
+        final Topology<String> decoded = TopologyFormat.decode(TopologyFormat.encode(topology, 0), "");
+        assertEquals(2.5, ((RendezvousTopology) decoded).weightOf("http://b:2"));
+        assertSamePlacement(topology, decoded);
+    }
+
+    @Test
+    void malformed() {
+        assertThrows(IllegalArgumentException.class, () -> TopologyFormat.epochOf(""));
+        assertThrows(IllegalArgumentException.class, () -> TopologyFormat.decode("epoch 1\nring\nhttp://a:1\n", ""));
+        assertThrows(IllegalArgumentException.class, () -> TopologyFormat.decode("epoch 1\nsquare\nhttp://a:1\n", ""));
+    }
+
+    private static void assertSamePlacement(
+            final Topology<String> expected,
+            final Topology<String> actual) {
+        assertEquals(expected.all(), actual.all());
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            assertEquals(expected.replicasFor(key, 2), actual.replicasFor(key, 2));
+        }
+    }
+}